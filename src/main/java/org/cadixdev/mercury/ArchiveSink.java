@@ -0,0 +1,322 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes the output files into a ZIP archive, see {@link OutputSink#archive(Path)}.
+ *
+ * <p>{@link java.util.zip.ZipOutputStream} compresses the entries while
+ * writing them, so entries cannot be compressed concurrently. Instead, each
+ * entry is compressed completely on the thread writing it, and only the
+ * compressed data is appended to the archive (one entry at a time). The
+ * central directory is written once the archive is closed.</p>
+ *
+ * <p>The entries are appended in the order the threads finish them, which
+ * is not reproducible with multiple threads. The central directory is sorted
+ * by name though, so the archive lists its entries in a stable order.</p>
+ */
+final class ArchiveSink implements OutputSink {
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final short ZIP64_EXTRA = 0x0001;
+
+    private static final short VERSION = 20;
+    private static final short VERSION_ZIP64 = 45;
+    private static final short FLAG_UTF8 = 0x0800;
+    private static final short METHOD_STORED = 0;
+    private static final short METHOD_DEFLATED = 8;
+
+    /**
+     * The modification time of all entries (1980-01-01 00:00 in MS-DOS
+     * format), so the entries only depend on their content.
+     */
+    private static final int DOS_TIME = 0x00210000;
+
+    private static final long ZIP64_LIMIT = 0xFFFFFFFFL;
+    private static final int ZIP64_ENTRY_LIMIT = 0xFFFF;
+
+    private final Path archiveFile;
+    private final FileChannel channel;
+
+    /**
+     * The entries written so far, guarded by {@code this}.
+     */
+    private final List<Entry> entries = new ArrayList<>();
+    private long offset;
+
+    private final ThreadLocal<Compressor> compressors;
+    private final Queue<Compressor> allCompressors = new ConcurrentLinkedQueue<>();
+
+    ArchiveSink(Path archiveFile) throws IOException {
+        this.archiveFile = archiveFile;
+        Path directory = archiveFile.toAbsolutePath().getParent();
+        if (directory != null) {
+            Files.createDirectories(directory);
+        }
+
+        this.channel = FileChannel.open(archiveFile,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        this.compressors = ThreadLocal.withInitial(() -> {
+            Compressor compressor = new Compressor();
+            this.allCompressors.add(compressor);
+            return compressor;
+        });
+    }
+
+    @Override
+    public void write(String path, ByteBuffer content) throws IOException {
+        if (content.hasArray()) {
+            write(path, content.array(), content.arrayOffset() + content.position(), content.remaining());
+        } else {
+            byte[] bytes = new byte[content.remaining()];
+            content.get(bytes);
+            write(path, bytes, 0, bytes.length);
+        }
+    }
+
+    @Override
+    public void copy(Path sourceFile, String path) throws IOException {
+        byte[] bytes = Files.readAllBytes(sourceFile);
+        write(path, bytes, 0, bytes.length);
+    }
+
+    private void write(String path, byte[] content, int offset, int length) throws IOException {
+        Compressor compressor = this.compressors.get();
+        compressor.compress(content, offset, length);
+
+        Entry entry = new Entry(path.getBytes(StandardCharsets.UTF_8));
+        entry.crc = compressor.crc;
+        entry.size = length;
+
+        ByteBuffer data;
+        if (compressor.length < length) {
+            entry.method = METHOD_DEFLATED;
+            entry.compressedSize = compressor.length;
+            data = ByteBuffer.wrap(compressor.buffer, 0, compressor.length);
+        } else {
+            // Store the entry if compressing it does not help
+            entry.method = METHOD_STORED;
+            entry.compressedSize = length;
+            data = ByteBuffer.wrap(content, offset, length);
+        }
+
+        ByteBuffer header = allocate(30 + entry.name.length);
+        header.putInt(LOCAL_HEADER)
+                .putShort(VERSION)
+                .putShort(FLAG_UTF8)
+                .putShort(entry.method)
+                .putInt(DOS_TIME)
+                .putInt(entry.crc)
+                .putInt((int) entry.compressedSize)
+                .putInt((int) entry.size)
+                .putShort((short) entry.name.length)
+                .putShort((short) 0)
+                .put(entry.name);
+        header.flip();
+
+        synchronized (this) {
+            entry.offset = this.offset;
+            this.offset += header.remaining() + data.remaining();
+            writeFully(header);
+            writeFully(data);
+            this.entries.add(entry);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            this.entries.sort(ArchiveSink::compareNames);
+
+            long centralDirectoryOffset = this.offset;
+            for (Entry entry : this.entries) {
+                writeCentralHeader(entry);
+            }
+            long centralDirectorySize = this.offset - centralDirectoryOffset;
+
+            int count = this.entries.size();
+            boolean zip64 = count > ZIP64_ENTRY_LIMIT || centralDirectoryOffset >= ZIP64_LIMIT || centralDirectorySize >= ZIP64_LIMIT;
+            ByteBuffer end = allocate(22 + (zip64 ? 56 + 20 : 0));
+            if (zip64) {
+                long zip64Offset = this.offset;
+                end.putInt(ZIP64_END_OF_CENTRAL_DIRECTORY)
+                        .putLong(44)
+                        .putShort(VERSION_ZIP64)
+                        .putShort(VERSION_ZIP64)
+                        .putInt(0)
+                        .putInt(0)
+                        .putLong(count)
+                        .putLong(count)
+                        .putLong(centralDirectorySize)
+                        .putLong(centralDirectoryOffset);
+                end.putInt(ZIP64_LOCATOR)
+                        .putInt(0)
+                        .putLong(zip64Offset)
+                        .putInt(1);
+            }
+
+            end.putInt(END_OF_CENTRAL_DIRECTORY)
+                    .putShort((short) 0)
+                    .putShort((short) 0)
+                    .putShort((short) Math.min(count, ZIP64_ENTRY_LIMIT))
+                    .putShort((short) Math.min(count, ZIP64_ENTRY_LIMIT))
+                    .putInt((int) Math.min(centralDirectorySize, ZIP64_LIMIT))
+                    .putInt((int) Math.min(centralDirectoryOffset, ZIP64_LIMIT))
+                    .putShort((short) 0);
+            end.flip();
+            writeFully(end);
+        } finally {
+            this.channel.close();
+            releaseCompressors();
+        }
+    }
+
+    private static int compareNames(Entry a, Entry b) {
+        // UTF-8 encoded names sort like the code points they encode
+        int length = Math.min(a.name.length, b.name.length);
+        for (int i = 0; i < length; i++) {
+            int cmp = Integer.compare(a.name[i] & 0xFF, b.name[i] & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(a.name.length, b.name.length);
+    }
+
+    private void writeCentralHeader(Entry entry) throws IOException {
+        boolean zip64 = entry.offset >= ZIP64_LIMIT;
+        ByteBuffer header = allocate(46 + entry.name.length + (zip64 ? 12 : 0));
+        header.putInt(CENTRAL_HEADER)
+                .putShort(zip64 ? VERSION_ZIP64 : VERSION)
+                .putShort(zip64 ? VERSION_ZIP64 : VERSION)
+                .putShort(FLAG_UTF8)
+                .putShort(entry.method)
+                .putInt(DOS_TIME)
+                .putInt(entry.crc)
+                .putInt((int) entry.compressedSize)
+                .putInt((int) entry.size)
+                .putShort((short) entry.name.length)
+                .putShort((short) (zip64 ? 12 : 0))
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putInt(0)
+                .putInt((int) Math.min(entry.offset, ZIP64_LIMIT))
+                .put(entry.name);
+        if (zip64) {
+            // Only the offset can exceed the limit, since entries are compressed in memory
+            header.putShort(ZIP64_EXTRA)
+                    .putShort((short) 8)
+                    .putLong(entry.offset);
+        }
+        header.flip();
+
+        this.offset += header.remaining();
+        writeFully(header);
+    }
+
+    @Override
+    public void abort() {
+        try {
+            this.channel.close();
+            Files.deleteIfExists(this.archiveFile);
+        } catch (IOException ignored) {
+            // The rewrite failed already
+        } finally {
+            releaseCompressors();
+        }
+    }
+
+    private void releaseCompressors() {
+        Compressor compressor;
+        while ((compressor = this.allCompressors.poll()) != null) {
+            compressor.deflater.end();
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            this.channel.write(buffer);
+        }
+    }
+
+    private static ByteBuffer allocate(int capacity) {
+        return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static final class Entry {
+
+        private final byte[] name;
+        private short method;
+        private int crc;
+        private long compressedSize;
+        private long size;
+        private long offset;
+
+        private Entry(byte[] name) {
+            this.name = name;
+        }
+
+    }
+
+    /**
+     * Compresses entries into a reusable buffer, owned by a single thread.
+     */
+    private static final class Compressor {
+
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        private final CRC32 checksum = new CRC32();
+        private byte[] buffer = new byte[64 * 1024];
+
+        private int length;
+        private int crc;
+
+        private void compress(byte[] content, int offset, int length) {
+            this.checksum.reset();
+            this.checksum.update(content, offset, length);
+            this.crc = (int) this.checksum.getValue();
+
+            this.deflater.reset();
+            this.deflater.setInput(content, offset, length);
+            this.deflater.finish();
+
+            this.length = 0;
+            while (!this.deflater.finished()) {
+                if (this.length == this.buffer.length) {
+                    this.buffer = Arrays.copyOf(this.buffer, this.buffer.length * 2);
+                }
+                this.length += this.deflater.deflate(this.buffer, this.length, this.buffer.length - this.length);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,480 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury;
+
+import org.cadixdev.mercury.util.Fingerprint;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * An index of the classes on the class path of a {@link Mercury} instance,
+ * mapping each class to the class path entry it is loaded from.
+ *
+ * <p>With a cache directory (see {@link Mercury#setClasspathCacheDir(Path)}),
+ * the index is stored on disk and reused by later runs (in any JVM) as long
+ * as the class path does not change. The stored index is memory-mapped, so
+ * loading it does not depend on the size of the class path. The classes of
+ * each JAR are cached separately as well (keyed by the path, size and
+ * modification time of the JAR), so only changed JARs are scanned again if
+ * the class path changes. Directories are always scanned.</p>
+ *
+ * <p>The index is used to find the classes read by the
+ * {@link org.cadixdev.mercury.analysis.ClassFileInheritanceProvider}. JDT
+ * only benefits from it through {@link #getEntries()}: the class path
+ * entries that do not provide any classes are not passed to it, but it
+ * searches the remaining ones itself.</p>
+ *
+ * <p>The index is immutable and safe to share across threads.</p>
+ */
+public final class ClasspathIndex {
+
+    private static final int MAGIC = 0x4D524349; // MRCI
+    private static final int VERSION = 1;
+
+    private static final String ENTRIES_DIR = "entries";
+    private static final String CLASS_EXTENSION = ".class";
+
+    /**
+     * The size of a class record: offset and length of the name, and the
+     * index of the class path entry.
+     */
+    private static final int CLASS_SIZE = 3 * Integer.BYTES;
+
+    /**
+     * Creates an index of the given class path, without storing it.
+     *
+     * @param classPath The class path
+     * @return The class path index
+     * @throws IOException If reading the class path failed
+     */
+    public static ClasspathIndex create(List<Path> classPath) throws IOException {
+        List<List<String>> classes = new ArrayList<>(classPath.size());
+        for (Path entry : classPath) {
+            classes.add(scan(entry));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(classPath, classes, out);
+        return read(ByteBuffer.wrap(out.toByteArray()), classPath);
+    }
+
+    /**
+     * Loads the index of the given class path from the cache directory, or
+     * creates (and stores) it if the class path changed.
+     *
+     * @param classPath The class path
+     * @param cacheDir The cache directory
+     * @return The class path index
+     * @throws IOException If reading the class path or the cache failed
+     */
+    public static ClasspathIndex load(List<Path> classPath, Path cacheDir) throws IOException {
+        // Directories do not have a meaningful modification time, so their
+        // classes are part of the fingerprint of the class path
+        Fingerprint fingerprint = Fingerprint.create().put(VERSION);
+        List<List<String>> classes = new ArrayList<>(classPath.size());
+        for (Path entry : classPath) {
+            if (Files.isDirectory(entry)) {
+                List<String> entryClasses = scan(entry);
+                classes.add(entryClasses);
+                fingerprint.put(entry.toAbsolutePath().toString()).put(entryClasses.size());
+                entryClasses.forEach(fingerprint::put);
+            } else {
+                classes.add(null);
+                fingerprint.put(getFingerprint(entry));
+            }
+        }
+
+        Path indexFile = cacheDir.resolve("classpath-" + fingerprint.build() + ".idx");
+        if (Files.isRegularFile(indexFile)) {
+            try {
+                return open(indexFile, classPath);
+            } catch (IOException ignored) {
+                // Create the index again
+            }
+        }
+
+        Path entriesDir = cacheDir.resolve(ENTRIES_DIR);
+        Files.createDirectories(entriesDir);
+        for (int i = 0; i < classPath.size(); i++) {
+            if (classes.get(i) == null) {
+                classes.set(i, loadEntry(classPath.get(i), entriesDir));
+            }
+        }
+
+        writeAtomically(indexFile, out -> write(classPath, classes, out));
+        return open(indexFile, classPath);
+    }
+
+    /**
+     * Computes the fingerprint of a class path entry, which changes whenever
+     * a JAR is modified. It is used to key caches of the content of JARs.
+     *
+     * @param entry The class path entry
+     * @return The fingerprint
+     * @throws IOException If the entry could not be accessed
+     */
+    public static String getFingerprint(Path entry) throws IOException {
+        Fingerprint fingerprint = Fingerprint.create().put(entry.toAbsolutePath().toString());
+        if (Files.isRegularFile(entry)) {
+            fingerprint.put(Files.size(entry)).put(Files.getLastModifiedTime(entry).toMillis());
+        } else {
+            fingerprint.put(-1);
+        }
+        return fingerprint.build();
+    }
+
+    /**
+     * Loads the classes of a JAR from the cache, or scans them.
+     */
+    private static List<String> loadEntry(Path entry, Path entriesDir) throws IOException {
+        Path entryFile = entriesDir.resolve(getFingerprint(entry) + ".idx");
+        if (Files.isRegularFile(entryFile)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(entryFile)))) {
+                if (in.readInt() == MAGIC && in.readInt() == VERSION) {
+                    int count = in.readInt();
+                    List<String> classes = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        classes.add(in.readUTF());
+                    }
+                    return classes;
+                }
+            } catch (IOException ignored) {
+                // Scan the entry again
+            }
+        }
+
+        List<String> classes = scan(entry);
+        writeAtomically(entryFile, stream -> {
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(classes.size());
+            for (String name : classes) {
+                out.writeUTF(name);
+            }
+            out.flush();
+        });
+        return classes;
+    }
+
+    /**
+     * Lists the classes in a class path entry, by their internal name.
+     */
+    private static List<String> scan(Path entry) throws IOException {
+        if (Files.isDirectory(entry)) {
+            try (Stream<Path> stream = Files.walk(entry)) {
+                String separator = entry.getFileSystem().getSeparator();
+                return stream
+                        .filter(p -> p.getFileName() != null && isClass(p.getFileName().toString()))
+                        .map(p -> toClassName(entry.relativize(p).toString().replace(separator, "/")))
+                        .filter(name -> !name.startsWith("META-INF/"))
+                        .sorted()
+                        .collect(Collectors.toList());
+            }
+        }
+
+        if (!Files.isRegularFile(entry)) {
+            return Collections.emptyList();
+        }
+
+        List<String> classes = new ArrayList<>();
+        try (ZipFile zip = new ZipFile(entry.toFile())) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                String name = entries.nextElement().getName();
+                if (isClass(name) && !name.startsWith("META-INF/")) {
+                    classes.add(toClassName(name));
+                }
+            }
+        }
+        Collections.sort(classes);
+        return classes;
+    }
+
+    private static boolean isClass(String fileName) {
+        return fileName.endsWith(CLASS_EXTENSION) && !fileName.endsWith("module-info" + CLASS_EXTENSION);
+    }
+
+    private static String toClassName(String path) {
+        return path.substring(0, path.length() - CLASS_EXTENSION.length());
+    }
+
+    private static void write(List<Path> classPath, List<List<String>> classes, OutputStream stream) throws IOException {
+        // Classes on multiple class path entries are loaded from the first one,
+        // and the names are sorted by their bytes for the binary search
+        Map<ByteKey, Integer> sorted = new TreeMap<>();
+        for (int i = 0; i < classes.size(); i++) {
+            for (String name : classes.get(i)) {
+                sorted.putIfAbsent(new ByteKey(name.getBytes(StandardCharsets.UTF_8)), i);
+            }
+        }
+
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(classPath.size());
+        out.writeInt(sorted.size());
+
+        int offset = 0;
+        for (Map.Entry<ByteKey, Integer> entry : sorted.entrySet()) {
+            out.writeInt(offset);
+            out.writeInt(entry.getKey().bytes.length);
+            out.writeInt(entry.getValue());
+            offset += entry.getKey().bytes.length;
+        }
+        for (ByteKey name : sorted.keySet()) {
+            out.write(name.bytes);
+        }
+        out.flush();
+    }
+
+    private static void writeAtomically(Path file, IndexWriter writer) throws IOException {
+        // Other processes might use the same cache directory concurrently
+        Path tempFile = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tempFile))) {
+                writer.write(out);
+            }
+            try {
+                Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private static ClasspathIndex open(Path file, List<Path> classPath) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        return read(buffer, classPath);
+    }
+
+    private static ClasspathIndex read(ByteBuffer buffer, List<Path> classPath) throws IOException {
+        if (buffer.limit() < 16 || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                || buffer.getInt(8) != classPath.size()) {
+            throw new IOException("Invalid class path index");
+        }
+
+        int count = buffer.getInt(12);
+        if (buffer.limit() < 16 + (long) count * CLASS_SIZE) {
+            throw new IOException("Truncated class path index");
+        }
+        return new ClasspathIndex(classPath, buffer, count);
+    }
+
+    private final List<Path> classPath;
+    private final ByteBuffer buffer;
+    private final int count;
+    private final int namesOffset;
+    private final List<Path> entries;
+
+    private ClasspathIndex(List<Path> classPath, ByteBuffer buffer, int count) {
+        this.classPath = Collections.unmodifiableList(new ArrayList<>(classPath));
+        this.buffer = buffer;
+        this.count = count;
+        this.namesOffset = 16 + count * CLASS_SIZE;
+
+        boolean[] used = new boolean[classPath.size()];
+        for (int i = 0; i < count; i++) {
+            used[buffer.getInt(16 + i * CLASS_SIZE + 8)] = true;
+        }
+
+        List<Path> entries = new ArrayList<>();
+        for (int i = 0; i < classPath.size(); i++) {
+            if (used[i]) {
+                entries.add(classPath.get(i));
+            }
+        }
+        this.entries = Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * Gets the class path the index was created for.
+     *
+     * @return The class path
+     */
+    public List<Path> getClassPath() {
+        return this.classPath;
+    }
+
+    /**
+     * Gets the class path entries that provide at least one class, in the
+     * order of the class path. Entries that do not exist, only contain
+     * resources or only contain classes that are shadowed by earlier entries
+     * are omitted.
+     *
+     * @return The class path entries
+     */
+    public List<Path> getEntries() {
+        return this.entries;
+    }
+
+    /**
+     * Gets the number of classes in the index.
+     *
+     * @return The number of classes
+     */
+    public int size() {
+        return this.count;
+    }
+
+    /**
+     * Finds the class path entry a class is loaded from.
+     *
+     * @param internalName The internal name of the class (e.g.
+     *     {@code com/example/Outer$Inner})
+     * @return The class path entry, or {@code null} if the class is not on
+     *     the class path
+     */
+    public Path findEntry(String internalName) {
+        int index = search(internalName.getBytes(StandardCharsets.UTF_8));
+        return index >= 0 ? this.classPath.get(this.buffer.getInt(16 + index * CLASS_SIZE + 8)) : null;
+    }
+
+    /**
+     * Checks whether the class path contains classes in the given package
+     * (or one of its sub packages).
+     *
+     * @param packageName The package name, with {@code /} as separator
+     * @return {@code true} if the package exists
+     */
+    public boolean isPackage(String packageName) {
+        byte[] prefix = (packageName + '/').getBytes(StandardCharsets.UTF_8);
+        int index = search(prefix);
+        if (index < 0) {
+            index = -(index + 1);
+        }
+        return index < this.count && startsWith(index, prefix);
+    }
+
+    /**
+     * Searches the class with the given name.
+     *
+     * @return The index of the class, or {@code -(insertion point) - 1}
+     */
+    private int search(byte[] name) {
+        int low = 0;
+        int high = this.count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int result = compare(mid, name);
+            if (result < 0) {
+                low = mid + 1;
+            } else if (result > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private int compare(int index, byte[] name) {
+        int record = 16 + index * CLASS_SIZE;
+        int offset = this.namesOffset + this.buffer.getInt(record);
+        int length = this.buffer.getInt(record + 4);
+
+        int common = Math.min(length, name.length);
+        for (int i = 0; i < common; i++) {
+            int result = Integer.compare(this.buffer.get(offset + i) & 0xFF, name[i] & 0xFF);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return Integer.compare(length, name.length);
+    }
+
+    private boolean startsWith(int index, byte[] prefix) {
+        int record = 16 + index * CLASS_SIZE;
+        int offset = this.namesOffset + this.buffer.getInt(record);
+        if (this.buffer.getInt(record + 4) < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (this.buffer.get(offset + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @FunctionalInterface
+    private interface IndexWriter {
+
+        void write(OutputStream out) throws IOException;
+
+    }
+
+    /**
+     * A name compared by its (unsigned) UTF-8 bytes, like in the index.
+     */
+    private static final class ByteKey implements Comparable<ByteKey> {
+
+        private final byte[] bytes;
+
+        private ByteKey(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int compareTo(ByteKey o) {
+            int common = Math.min(this.bytes.length, o.bytes.length);
+            for (int i = 0; i < common; i++) {
+                int result = Integer.compare(this.bytes[i] & 0xFF, o.bytes[i] & 0xFF);
+                if (result != 0) {
+                    return result;
+                }
+            }
+            return Integer.compare(this.bytes.length, o.bytes.length);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof ByteKey && compareTo((ByteKey) obj) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(this.bytes);
+        }
+
+    }
+
+}
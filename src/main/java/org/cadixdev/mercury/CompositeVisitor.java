@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury;
+
+import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.ASTVisitor;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+
+/**
+ * Visits a compilation unit with several visitors in a single traversal.
+ *
+ * <p>Each node is passed to the visitors in order, as if each of them
+ * traversed the compilation unit on its own: a visitor that does not visit
+ * the children of a node (by returning {@code false}) skips the subtree,
+ * while the other visitors continue.</p>
+ */
+final class CompositeVisitor extends ASTVisitor {
+
+    private static final MethodType VISIT_TYPE = MethodType.methodType(boolean.class, ASTVisitor.class, ASTNode.class);
+    private static final MethodType END_VISIT_TYPE = MethodType.methodType(void.class, ASTVisitor.class, ASTNode.class);
+
+    /**
+     * The {@code visit} and {@code endVisit} methods of {@link ASTVisitor}
+     * for each type of node.
+     */
+    private static final ClassValue<MethodHandle[]> HANDLES = new ClassValue<MethodHandle[]>() {
+        @Override
+        protected MethodHandle[] computeValue(Class<?> type) {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            for (Class<?> nodeType = type; nodeType != ASTNode.class; nodeType = nodeType.getSuperclass()) {
+                try {
+                    return new MethodHandle[] {
+                            lookup.findVirtual(ASTVisitor.class, "visit", MethodType.methodType(boolean.class, nodeType))
+                                    .asType(VISIT_TYPE),
+                            lookup.findVirtual(ASTVisitor.class, "endVisit", MethodType.methodType(void.class, nodeType))
+                                    .asType(END_VISIT_TYPE)
+                    };
+                } catch (NoSuchMethodException e) {
+                    // Try the super class
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException("Cannot access visit methods for " + nodeType, e);
+                }
+            }
+            throw new IllegalStateException("No visit methods for " + type);
+        }
+    };
+
+    private final ASTVisitor[] visitors;
+
+    /**
+     * For each visitor, the node whose subtree it skips, or {@code null}.
+     */
+    private final ASTNode[] skipped;
+
+    /**
+     * For each visitor, whether it visited the skipped node itself and still
+     * needs to end the visit.
+     */
+    private final boolean[] visited;
+
+    private int active;
+
+    CompositeVisitor(List<ASTVisitor> visitors) {
+        // Doc tags are skipped by the visitors that do not visit them
+        super(true);
+        this.visitors = visitors.toArray(new ASTVisitor[0]);
+        this.skipped = new ASTNode[this.visitors.length];
+        this.visited = new boolean[this.visitors.length];
+        this.active = this.visitors.length;
+    }
+
+    private void skip(int index, ASTNode node, boolean visited) {
+        this.skipped[index] = node;
+        this.visited[index] = visited;
+        this.active--;
+    }
+
+    @Override
+    public boolean preVisit2(ASTNode node) {
+        MethodHandle[] handles = null;
+        for (int i = 0; i < this.visitors.length; i++) {
+            if (this.skipped[i] != null) {
+                continue;
+            }
+
+            ASTVisitor visitor = this.visitors[i];
+            if (!visitor.preVisit2(node)) {
+                skip(i, node, false);
+                continue;
+            }
+
+            if (handles == null) {
+                handles = HANDLES.get(node.getClass());
+            }
+            if (!visit(handles[0], visitor, node)) {
+                skip(i, node, true);
+            }
+        }
+
+        // None of the visitors needs the children. JDT still calls
+        // postVisit for the node, which ends the visit
+        return this.active > 0;
+    }
+
+    @Override
+    public void postVisit(ASTNode node) {
+        MethodHandle[] handles = null;
+        for (int i = 0; i < this.visitors.length; i++) {
+            boolean visited = true;
+            if (this.skipped[i] == node) {
+                this.skipped[i] = null;
+                this.active++;
+                visited = this.visited[i];
+            } else if (this.skipped[i] != null) {
+                continue;
+            }
+
+            ASTVisitor visitor = this.visitors[i];
+            if (visited) {
+                if (handles == null) {
+                    handles = HANDLES.get(node.getClass());
+                }
+                endVisit(handles[1], visitor, node);
+            }
+
+            // Like ASTNode#accept, postVisit is called even if preVisit2
+            // returned false
+            visitor.postVisit(node);
+        }
+    }
+
+    private static boolean visit(MethodHandle handle, ASTVisitor visitor, ASTNode node) {
+        try {
+            return (boolean) handle.invokeExact(visitor, node);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void endVisit(MethodHandle handle, ASTVisitor visitor, ASTNode node) {
+        try {
+            handle.invokeExact(visitor, node);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * How source files that are not changed by a {@link Mercury#rewrite(Path, Path)
+ * rewrite} are written to the output directory. Output files that are
+ * already identical can be skipped entirely with
+ * {@link Mercury#setSkipIdenticalOutput(boolean)}.
+ */
+public enum CopyStrategy {
+
+    /**
+     * Copies the source file with {@link Files#copy(Path, Path, java.nio.file.CopyOption...)}.
+     */
+    COPY,
+
+    /**
+     * Copies the source file with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+     * which lets the operating system copy the content without passing it
+     * through the JVM.
+     */
+    TRANSFER,
+
+    /**
+     * Creates a hard link to the source file, falling back to
+     * {@link #TRANSFER} if that is not supported (e.g. because the output
+     * directory is on a different file system).
+     *
+     * <p>The linked output files share their content with the source files,
+     * so they must not be modified in place. (Mercury itself always replaces
+     * output files rather than overwriting them.)</p>
+     */
+    LINK
+
+}
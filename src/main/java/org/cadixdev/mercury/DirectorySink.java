@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Writes the output files into a directory, used by
+ * {@link Mercury#rewrite(Path, Path)}.
+ */
+final class DirectorySink implements OutputSink {
+
+    private static final int COMPARE_BUFFER_SIZE = 8 * 1024;
+
+    private final Path outputDir;
+    private final CopyStrategy copyStrategy;
+    private final boolean skipIdentical;
+
+    private final Set<Path> directories = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The buffer for the existing content of an output file, only used to
+     * skip identical output files (both rewritten and copied ones).
+     */
+    private final ThreadLocal<ByteBuffer> existing = new ThreadLocal<>();
+
+    DirectorySink(Path outputDir, CopyStrategy copyStrategy, boolean skipIdentical) {
+        this.outputDir = outputDir;
+        this.copyStrategy = copyStrategy;
+        this.skipIdentical = skipIdentical;
+    }
+
+    /**
+     * Resolves the output file, using the separator of the file system.
+     */
+    private Path resolve(String path) {
+        String separator = this.outputDir.getFileSystem().getSeparator();
+        return this.outputDir.resolve(separator.equals("/") ? path : path.replace("/", separator));
+    }
+
+    @Override
+    public void write(String path, ByteBuffer content) throws IOException {
+        Path outputFile = resolve(path);
+        createParentDirectories(outputFile);
+        if (this.skipIdentical && isIdentical(outputFile, content)) {
+            return;
+        }
+
+        try (FileChannel channel = create(outputFile)) {
+            while (content.hasRemaining()) {
+                channel.write(content);
+            }
+        }
+    }
+
+    @Override
+    public void copy(Path sourceFile, String path) throws IOException {
+        Path outputFile = resolve(path);
+        if (Files.exists(outputFile) && Files.isSameFile(sourceFile, outputFile)) {
+            // The output file is the source file itself (e.g. when rewriting
+            // in place), so replacing it would delete the source file
+            return;
+        }
+
+        createParentDirectories(outputFile);
+        if (this.skipIdentical && isIdentical(outputFile, sourceFile)) {
+            return;
+        }
+
+        switch (this.copyStrategy) {
+            case COPY:
+                Files.copy(sourceFile, outputFile, StandardCopyOption.REPLACE_EXISTING);
+                break;
+            case TRANSFER:
+                transfer(sourceFile, outputFile);
+                break;
+            case LINK:
+                link(sourceFile, outputFile);
+                break;
+            default:
+                throw new AssertionError(this.copyStrategy);
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private void createParentDirectories(Path outputFile) throws IOException {
+        Path directory = outputFile.getParent();
+        if (directory != null && this.directories.add(directory)) {
+            try {
+                Files.createDirectories(directory);
+            } catch (IOException e) {
+                this.directories.remove(directory);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Opens a new output file. An existing output file is deleted first, since
+     * it might be a {@link CopyStrategy#LINK link} to a source file.
+     */
+    private static FileChannel create(Path outputFile) throws IOException {
+        Files.deleteIfExists(outputFile);
+        return FileChannel.open(outputFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    private static void transfer(Path sourceFile, Path outputFile) throws IOException {
+        try (FileChannel in = FileChannel.open(sourceFile, StandardOpenOption.READ);
+             FileChannel out = create(outputFile)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+        }
+    }
+
+    private static void link(Path sourceFile, Path outputFile) throws IOException {
+        Files.deleteIfExists(outputFile);
+        try {
+            Files.createLink(outputFile, sourceFile);
+        } catch (UnsupportedOperationException | IOException e) {
+            // For example if the output is on a different file system
+            transfer(sourceFile, outputFile);
+        }
+    }
+
+    /**
+     * Checks whether the output file already has the given content, by
+     * comparing the size first and only then the bytes. There is no hash
+     * comparison in between: no hash of the existing output file is stored,
+     * and computing one would read the whole file just like comparing the
+     * bytes does.
+     */
+    private boolean isIdentical(Path outputFile, ByteBuffer content) throws IOException {
+        if (!Files.isRegularFile(outputFile)) {
+            return false;
+        }
+
+        try (FileChannel channel = FileChannel.open(outputFile, StandardOpenOption.READ)) {
+            // Most changed files also change in size, so only compare
+            // the content if the size matches
+            if (channel.size() != content.remaining()) {
+                return false;
+            }
+
+            ByteBuffer existing = this.existing.get();
+            if (existing == null || existing.capacity() < content.remaining()) {
+                existing = ByteBuffer.allocate(Math.max(content.remaining(), COMPARE_BUFFER_SIZE));
+                this.existing.set(existing);
+            }
+            existing.clear().limit(content.remaining());
+            while (existing.hasRemaining() && channel.read(existing) >= 0) {
+                // Keep reading
+            }
+            existing.flip();
+            return existing.equals(content);
+        }
+    }
+
+    private boolean isIdentical(Path outputFile, Path sourceFile) throws IOException {
+        // Check the size first, to avoid mapping the source file if possible
+        if (!Files.isRegularFile(outputFile) || Files.size(outputFile) != Files.size(sourceFile)) {
+            return false;
+        }
+
+        try (FileChannel channel = FileChannel.open(sourceFile, StandardOpenOption.READ)) {
+            return isIdentical(outputFile, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+}
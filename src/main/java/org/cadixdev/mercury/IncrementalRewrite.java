@@ -0,0 +1,403 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury;
+
+import org.cadixdev.mercury.util.Fingerprint;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitOption;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Keeps track of the inputs and outputs of a {@link Mercury#isIncremental()
+ * incremental} rewrite, using a manifest stored in the output directory.
+ *
+ * <p>A source file is only processed again if its content changed, if its
+ * previous output is missing, or if it (possibly indirectly) references a type
+ * declared in a changed, added or removed source file. All source files are
+ * processed if the fingerprint of the environment (the configuration, class
+ * path and source path) changed. If only the fingerprint of some processors
+ * changed, they are asked whether the previous output of a source file can
+ * still be used (see {@link SourceProcessor#isOutputReusable(String, SourceSummary)}).</p>
+ */
+final class IncrementalRewrite {
+
+    static final String MANIFEST_FILE = ".mercury-manifest";
+
+    private static final String HEADER = "# Mercury incremental manifest";
+    private static final int VERSION = 2;
+
+    private static final String SEPARATOR = "\t";
+    private static final String TYPE_SEPARATOR = ",";
+
+    private final Mercury mercury;
+    private final Path manifestFile;
+
+    /**
+     * The fingerprints of the rewrite: the fingerprint of the environment,
+     * followed by the fingerprints of the processors. {@code null} if a
+     * processor does not support incremental rewrites.
+     */
+    private final List<String> fingerprints;
+
+    /**
+     * The entries of the previous manifest, indexed by source file.
+     */
+    private final Map<String, Entry> previous;
+
+    /**
+     * The processors whose fingerprint changed since the previous rewrite,
+     * mapped to their previous fingerprint.
+     */
+    private final Map<SourceProcessor, String> changedProcessors = new LinkedHashMap<>();
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private IncrementalRewrite(Mercury mercury, List<String> fingerprints, Map<String, Entry> previous) {
+        this.mercury = mercury;
+        this.manifestFile = mercury.getOutputDir().resolve(MANIFEST_FILE);
+        this.fingerprints = fingerprints;
+        this.previous = previous;
+    }
+
+    static IncrementalRewrite create(Mercury mercury) throws Exception {
+        Path manifestFile = mercury.getOutputDir().resolve(MANIFEST_FILE);
+
+        List<String> fingerprints = computeFingerprints(mercury);
+        Map<String, Entry> previous = new LinkedHashMap<>();
+        List<String> previousFingerprints = read(manifestFile, previous);
+
+        // Remove the manifest until the rewrite has completed, so a failed
+        // rewrite cannot leave behind a manifest for outdated output
+        Files.deleteIfExists(manifestFile);
+
+        IncrementalRewrite rewrite = new IncrementalRewrite(mercury, fingerprints, previous);
+        if (fingerprints == null || previousFingerprints == null || fingerprints.size() != previousFingerprints.size()
+                || !fingerprints.get(0).equals(previousFingerprints.get(0))) {
+            rewrite.invalidateAll();
+        } else {
+            List<SourceProcessor> processors = mercury.getProcessors();
+            for (int i = 0; i < processors.size(); i++) {
+                String previousFingerprint = previousFingerprints.get(i + 1);
+                if (!fingerprints.get(i + 1).equals(previousFingerprint)) {
+                    rewrite.changedProcessors.put(processors.get(i), previousFingerprint);
+                }
+            }
+        }
+        return rewrite;
+    }
+
+    private void invalidateAll() {
+        for (Entry entry : this.previous.values()) {
+            entry.hash = null;
+        }
+    }
+
+    /**
+     * Finds the source files that need to be processed. The previous output
+     * of all other source files is kept as-is.
+     *
+     * @param summaries The summaries of all source files
+     * @return The summaries of the source files to process
+     * @throws IOException If a source file could not be read
+     */
+    List<SourceSummary> filter(List<SourceSummary> summaries) throws IOException {
+        Set<String> removed = new HashSet<>(this.previous.keySet());
+        Set<String> changedTypes = new HashSet<>();
+
+        Map<String, SourceSummary> unchanged = new HashMap<>();
+        List<SourceSummary> changed = new ArrayList<>();
+
+        for (SourceSummary summary : summaries) {
+            String sourceFile = getSourceFile(summary.getSourceFile());
+            removed.remove(sourceFile);
+
+            Entry entry = this.previous.get(sourceFile);
+            if (entry != null && summary.getContentHash().equals(entry.hash)
+                    && Files.exists(this.mercury.getOutputDir().resolve(entry.outputFile))) {
+                if (isOutputReusable(summary)) {
+                    unchanged.put(sourceFile, summary);
+                } else {
+                    // Only the output changes, so the files depending on this
+                    // source file do not need to be invalidated
+                    changed.add(summary);
+                }
+            } else {
+                changed.add(summary);
+                changedTypes.addAll(summary.getDeclaredTypes());
+                if (entry != null) {
+                    changedTypes.addAll(entry.declaredTypes);
+                }
+            }
+        }
+
+        for (String sourceFile : removed) {
+            changedTypes.addAll(this.previous.get(sourceFile).declaredTypes);
+        }
+
+        // Invalidate all source files that reference one of the changed types,
+        // and, transitively, all files referencing types declared in those
+        Map<String, List<String>> references = new HashMap<>();
+        for (Map.Entry<String, SourceSummary> entry : unchanged.entrySet()) {
+            for (String identifier : entry.getValue().getIdentifiers()) {
+                references.computeIfAbsent(identifier, k -> new ArrayList<>()).add(entry.getKey());
+            }
+        }
+
+        Deque<String> queue = new ArrayDeque<>(changedTypes);
+        while (!queue.isEmpty()) {
+            List<String> sourceFiles = references.get(queue.poll());
+            if (sourceFiles == null) {
+                continue;
+            }
+
+            for (String sourceFile : sourceFiles) {
+                SourceSummary summary = unchanged.remove(sourceFile);
+                if (summary != null) {
+                    changed.add(summary);
+                    for (String type : summary.getDeclaredTypes()) {
+                        if (changedTypes.add(type)) {
+                            queue.add(type);
+                        }
+                    }
+                }
+            }
+        }
+
+        // Keep the previous output of the remaining source files
+        for (Map.Entry<String, SourceSummary> entry : unchanged.entrySet()) {
+            this.entries.put(entry.getKey(), this.previous.get(entry.getKey()));
+            this.mercury.countReused();
+        }
+
+        for (SourceSummary summary : changed) {
+            this.entries.put(getSourceFile(summary.getSourceFile()),
+                    new Entry(summary.getContentHash(), null, summary.getDeclaredTypes()));
+        }
+
+        return changed;
+    }
+
+    private boolean isOutputReusable(SourceSummary summary) throws IOException {
+        for (Map.Entry<SourceProcessor, String> entry : this.changedProcessors.entrySet()) {
+            try {
+                if (!entry.getKey().isOutputReusable(entry.getValue(), summary)) {
+                    return false;
+                }
+            } catch (IOException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        }
+        return true;
+    }
+
+    void recordOutput(Path sourceFile, String outputPath) {
+        Entry entry = this.entries.get(getSourceFile(sourceFile));
+        if (entry != null) {
+            entry.outputFile = outputPath;
+        }
+    }
+
+    /**
+     * Removes the output of source files that no longer exist, and writes the
+     * manifest for the next rewrite. Must only be called after all output has
+     * been written successfully.
+     *
+     * @throws IOException If the manifest could not be written
+     */
+    void finish() throws IOException {
+        Set<String> outputFiles = new HashSet<>();
+        for (Entry entry : this.entries.values()) {
+            outputFiles.add(entry.outputFile);
+        }
+
+        for (Entry entry : this.previous.values()) {
+            if (entry.outputFile != null && !outputFiles.contains(entry.outputFile)) {
+                Files.deleteIfExists(this.mercury.getOutputDir().resolve(entry.outputFile));
+            }
+        }
+
+        if (this.fingerprints == null) {
+            return;
+        }
+
+        try (BufferedWriter writer = Files.newBufferedWriter(this.manifestFile, StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.newLine();
+            writer.write(Integer.toString(VERSION));
+            writer.newLine();
+            writer.write(Integer.toString(this.fingerprints.size()));
+            writer.newLine();
+            for (String fingerprint : this.fingerprints) {
+                writer.write(fingerprint);
+                writer.newLine();
+            }
+
+            List<String> sourceFiles = new ArrayList<>(this.entries.keySet());
+            Collections.sort(sourceFiles);
+            for (String sourceFile : sourceFiles) {
+                Entry entry = this.entries.get(sourceFile);
+                if (entry.outputFile == null) {
+                    // Source file was not written (e.g. it failed to parse)
+                    continue;
+                }
+
+                writer.write(entry.hash);
+                writer.write(SEPARATOR);
+                writer.write(sourceFile);
+                writer.write(SEPARATOR);
+                writer.write(entry.outputFile);
+                writer.write(SEPARATOR);
+                writer.write(String.join(TYPE_SEPARATOR, entry.declaredTypes));
+                writer.newLine();
+            }
+        }
+    }
+
+    private String getSourceFile(Path sourceFile) {
+        return toString(this.mercury.getSourceDir().relativize(sourceFile));
+    }
+
+    private static String toString(Path path) {
+        String separator = path.getFileSystem().getSeparator();
+        String result = path.toString();
+        return separator.equals("/") ? result : result.replace(separator, "/");
+    }
+
+    private static List<String> read(Path manifestFile, Map<String, Entry> entries) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(manifestFile, StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(reader.readLine()) || !Integer.toString(VERSION).equals(reader.readLine())) {
+                return null;
+            }
+
+            int count;
+            try {
+                count = Integer.parseInt(reader.readLine());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+
+            List<String> fingerprints = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                fingerprints.add(reader.readLine());
+            }
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(SEPARATOR, -1);
+                if (parts.length != 4) {
+                    entries.clear();
+                    return null;
+                }
+
+                Set<String> declaredTypes = parts[3].isEmpty() ? Collections.emptySet() :
+                        new HashSet<>(Arrays.asList(parts[3].split(TYPE_SEPARATOR)));
+                Entry entry = new Entry(parts[0], parts[2], declaredTypes);
+                entries.put(parts[1], entry);
+            }
+
+            return fingerprints.contains(null) ? null : fingerprints;
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static List<String> computeFingerprints(Mercury mercury) throws IOException {
+        List<String> fingerprints = new ArrayList<>();
+        fingerprints.add(null);
+
+        Fingerprint environment = Fingerprint.create()
+                .put(VERSION)
+                .put(mercury.getSourceCompatibility())
+                .put(mercury.getEncoding().name())
+                .put(mercury.isGracefulClasspathChecks())
+                .put(mercury.isGracefulJavadocClasspathChecks())
+                .put(mercury.isFlexibleAnonymousClassMemberLookups());
+
+        for (SourceProcessor processor : mercury.getProcessors()) {
+            String fingerprint = processor.getFingerprint();
+            if (fingerprint == null) {
+                return null;
+            }
+
+            environment.put(processor.getClass().getName());
+            fingerprints.add(fingerprint);
+        }
+
+        putPaths(environment, mercury.getClassPath());
+        putPaths(environment, mercury.getSourcePath());
+        fingerprints.set(0, environment.build());
+        return fingerprints;
+    }
+
+    private static void putPaths(Fingerprint fingerprint, List<Path> paths) throws IOException {
+        fingerprint.put(paths.size());
+        for (Path path : paths) {
+            fingerprint.put(path.toString());
+
+            if (Files.isDirectory(path)) {
+                List<Path> files;
+                try (Stream<Path> stream = Files.walk(path, FileVisitOption.FOLLOW_LINKS)) {
+                    files = stream.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+                }
+
+                fingerprint.put(files.size());
+                for (Path file : files) {
+                    putFile(fingerprint.put(path.relativize(file).toString()), file);
+                }
+            } else if (Files.exists(path)) {
+                putFile(fingerprint, path);
+            } else {
+                fingerprint.put(-1);
+            }
+        }
+    }
+
+    private static void putFile(Fingerprint fingerprint, Path file) throws IOException {
+        fingerprint.put(Files.size(file)).put(Files.getLastModifiedTime(file).toMillis());
+    }
+
+    private static final class Entry {
+
+        private String hash;
+        private String outputFile;
+        private final Set<String> declaredTypes;
+
+        private Entry(String hash, String outputFile, Set<String> declaredTypes) {
+            this.hash = hash;
+            this.outputFile = outputFile;
+            this.declaredTypes = declaredTypes;
+        }
+
+    }
+
+}
@@ -10,6 +10,7 @@
 
 package org.cadixdev.mercury;
 
+import org.cadixdev.mercury.analysis.ClassFileInheritanceProvider;
 import org.eclipse.jdt.core.JavaCore;
 import org.eclipse.jdt.core.dom.AST;
 import org.eclipse.jdt.core.dom.ASTParser;
@@ -17,7 +18,9 @@
 import org.eclipse.jdt.core.dom.FileASTRequestor;
 import org.eclipse.jdt.core.dom.IBinding;
 import org.eclipse.jdt.core.dom.ITypeBinding;
+import org.eclipse.jdt.core.dom.rewrite.ASTRewrite;
 
+import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileVisitOption;
@@ -26,11 +29,22 @@
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public final class Mercury {
@@ -39,6 +53,8 @@ public final class Mercury {
 
     private static final String[] EMPTY_STRING_ARRAY = new String[0];
 
+    private static final String PROBLEM_OPTION_PREFIX = JavaCore.PLUGIN_ID + ".compiler.problem.";
+
     private String sourceCompatibility = JavaCore.VERSION_1_8;
     private Charset encoding = StandardCharsets.UTF_8;
     /**
@@ -57,17 +73,111 @@ public final class Mercury {
      * for member mappings if this is true.
      */
     private boolean flexibleAnonymousClassMemberLookups = false;
+    /**
+     * The number of worker threads used to parse and process source files.
+     * With more than one thread, the source files are split across the workers,
+     * each of which parses its share with its own parser - and the processors
+     * are invoked concurrently, so they must be thread-safe. The processors
+     * shipped with Mercury are: the remappers only read an immutable mapping
+     * index (or serialize access to a {@code MappingSet}), and the access
+     * transformer processors synchronize on the sets they change.
+     */
+    private int threads = 1;
+    /**
+     * The maximum number of source files that are parsed together, or {@code 0}
+     * for no limit. Each batch is parsed by its own parser, and its ASTs and
+     * bindings are released before the next batch is parsed - so the memory
+     * required is bounded by the size of a batch rather than the size of the
+     * source tree. Batches are spread across the {@link #threads workers}.
+     */
+    private int batchSize = 0;
+    /**
+     * The maximum total size (in bytes) of the source files that are parsed
+     * together, or {@code 0} for no limit. See {@link #batchSize}.
+     */
+    private long batchBytes = 0;
+    /**
+     * If enabled, source files are first checked against the processors
+     * (see {@link SourceProcessor#isRelevant(SourceSummary)}) by only scanning
+     * their tokens, and files no processor considers relevant are copied as-is
+     * without being parsed.
+     */
+    private boolean sourceFiltering = false;
+    /**
+     * The number of threads writing the output files, or {@code 0} to write
+     * them directly on the threads processing the source files. With writer
+     * threads, pending output is queued (up to a bounded number of files), so
+     * parsing does not have to wait for the file system.
+     */
+    private int outputThreads = 0;
+    /**
+     * How source files that are not changed by the rewrite are written to the
+     * output directory.
+     */
+    private CopyStrategy copyStrategy = CopyStrategy.COPY;
+    /**
+     * If enabled, output files (both rewritten and copied ones) are only
+     * written if the output file does not exist yet or has different
+     * content, so unchanged output files keep their modification time (and
+     * do not trigger incremental builds using the output).
+     */
+    private boolean skipIdenticalOutput = false;
+    /**
+     * If enabled, {@link #rewrite(Path, Path)} stores a manifest in the output
+     * directory, and only processes source files again if they (or the source
+     * files they depend on) changed since the last rewrite. Requires all
+     * processors to provide a {@link SourceProcessor#getFingerprint()
+     * fingerprint}, otherwise all source files are processed.
+     */
+    private boolean incremental = false;
+    /**
+     * If enabled, renamed identifiers are patched directly into the source
+     * text in a single pass, without an {@link ASTRewrite}. The rewrite is
+     * only used for files that also need structural changes (e.g. qualified
+     * names that are replaced). The output is the same either way.
+     */
+    private boolean directPatching = false;
+    /**
+     * If enabled, source files are read using memory-mapped I/O.
+     */
+    private boolean memoryMappedSources = false;
+    /**
+     * The directory to store the {@link ClasspathIndex} in, so it can be
+     * reused by later runs, or {@code null} to pass the class path to JDT
+     * as-is. The classes of the JARs read by the
+     * {@link org.cadixdev.mercury.analysis.ClassFileInheritanceProvider} are
+     * stored there as well.
+     *
+     * <p>JDT does not use the index for its lookups, since it has no API for
+     * that: it is only given the class path entries that provide any classes
+     * (see {@link ClasspathIndex#getEntries()}), and still opens and searches
+     * those itself. The index answers the class lookups of the
+     * {@link org.cadixdev.mercury.analysis.ClassFileInheritanceProvider}.</p>
+     */
+    private Path classpathCacheDir;
 
     private final List<Path> classPath = new ArrayList<>();
     private final List<Path> sourcePath = new ArrayList<>();
 
-    private final Map<Object, Object> context = new HashMap<>();
+    private final Map<Object, Object> context = Collections.synchronizedMap(new HashMap<>());
     private Path sourceDir;
     private Path outputDir;
+    private OutputWriter output;
+    private SourceContents sourceContents;
+    private ClasspathIndex classpathIndex;
+    private ClassFileInheritanceProvider classFileInheritanceProvider;
+    private IncrementalRewrite incrementalRewrite;
 
     private final List<SourceProcessor> processors = new ArrayList<>();
 
-    private final FileASTRequestor requestor = new Requestor();
+    private final ThreadLocal<Requestor> requestor = new ThreadLocal<>();
+
+    private final AtomicInteger rewrittenFiles = new AtomicInteger();
+    private final AtomicInteger copiedFiles = new AtomicInteger();
+    private final AtomicInteger reusedFiles = new AtomicInteger();
+    private final AtomicInteger parsedBatches = new AtomicInteger();
+
+    private Map<String, String> compilerOptions;
 
     public String getSourceCompatibility() {
         return this.sourceCompatibility;
@@ -109,6 +219,138 @@ public void setFlexibleAnonymousClassMemberLookups(final boolean enable) {
         this.flexibleAnonymousClassMemberLookups = enable;
     }
 
+    public int getThreads() {
+        return this.threads;
+    }
+
+    public void setThreads(final int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1");
+        }
+        this.threads = threads;
+    }
+
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+
+    public void setBatchSize(final int batchSize) {
+        if (batchSize < 0) {
+            throw new IllegalArgumentException("batchSize must not be negative");
+        }
+        this.batchSize = batchSize;
+    }
+
+    public long getBatchBytes() {
+        return this.batchBytes;
+    }
+
+    public void setBatchBytes(final long batchBytes) {
+        if (batchBytes < 0) {
+            throw new IllegalArgumentException("batchBytes must not be negative");
+        }
+        this.batchBytes = batchBytes;
+    }
+
+    public boolean isSourceFiltering() {
+        return this.sourceFiltering;
+    }
+
+    public void setSourceFiltering(final boolean enable) {
+        this.sourceFiltering = enable;
+    }
+
+    public int getOutputThreads() {
+        return this.outputThreads;
+    }
+
+    public void setOutputThreads(final int outputThreads) {
+        if (outputThreads < 0) {
+            throw new IllegalArgumentException("outputThreads must not be negative");
+        }
+        this.outputThreads = outputThreads;
+    }
+
+    public CopyStrategy getCopyStrategy() {
+        return this.copyStrategy;
+    }
+
+    public void setCopyStrategy(final CopyStrategy copyStrategy) {
+        this.copyStrategy = Objects.requireNonNull(copyStrategy, "copyStrategy");
+    }
+
+    public boolean isSkipIdenticalOutput() {
+        return this.skipIdenticalOutput;
+    }
+
+    public void setSkipIdenticalOutput(final boolean enable) {
+        this.skipIdenticalOutput = enable;
+    }
+
+    public boolean isIncremental() {
+        return this.incremental;
+    }
+
+    public void setIncremental(final boolean enable) {
+        this.incremental = enable;
+    }
+
+    public boolean isDirectPatching() {
+        return this.directPatching;
+    }
+
+    public void setDirectPatching(final boolean enable) {
+        this.directPatching = enable;
+    }
+
+    public boolean isMemoryMappedSources() {
+        return this.memoryMappedSources;
+    }
+
+    public void setMemoryMappedSources(final boolean enable) {
+        this.memoryMappedSources = enable;
+    }
+
+    public Path getClasspathCacheDir() {
+        return this.classpathCacheDir;
+    }
+
+    public void setClasspathCacheDir(final Path classpathCacheDir) {
+        this.classpathCacheDir = classpathCacheDir;
+    }
+
+    /**
+     * Gets the index of the {@link #getClassPath() class path}, which is
+     * loaded from the {@link #setClasspathCacheDir(Path) cache directory}
+     * if possible. The index is kept until the end of the current run.
+     *
+     * @return The class path index
+     * @throws IOException If the class path could not be indexed
+     */
+    public synchronized ClasspathIndex getClasspathIndex() throws IOException {
+        if (this.classpathIndex == null || !this.classpathIndex.getClassPath().equals(this.classPath)) {
+            this.classpathIndex = this.classpathCacheDir != null ?
+                    ClasspathIndex.load(this.classPath, this.classpathCacheDir) : ClasspathIndex.create(this.classPath);
+        }
+        return this.classpathIndex;
+    }
+
+    /**
+     * Gets the inheritance provider reading the class files of the
+     * {@link #getClassPath() class path}, which is shared by all threads. It
+     * is created once it is first needed, and closed at the end of the
+     * current run.
+     *
+     * @return The inheritance provider
+     * @throws IOException If the class path could not be indexed
+     */
+    public synchronized ClassFileInheritanceProvider getClassFileInheritanceProvider() throws IOException {
+        if (this.classFileInheritanceProvider == null) {
+            this.classFileInheritanceProvider = ClassFileInheritanceProvider.create(getClasspathIndex(), this.classpathCacheDir);
+        }
+        return this.classFileInheritanceProvider;
+    }
+
     public List<Path> getClassPath() {
         return this.classPath;
     }
@@ -129,10 +371,105 @@ public Path getOutputDir() {
         return this.outputDir;
     }
 
+    OutputWriter getOutput() {
+        return this.output;
+    }
+
+    /**
+     * Gets the number of source files that were changed by the processors and
+     * written out again, during the last {@link #rewrite(Path, Path)}.
+     *
+     * @return The number of rewritten files
+     */
+    public int getRewrittenFiles() {
+        return this.rewrittenFiles.get();
+    }
+
+    /**
+     * Gets the number of source files that were left unchanged and copied to
+     * the output directory as-is, during the last {@link #rewrite(Path, Path)}.
+     *
+     * @return The number of copied files
+     */
+    public int getCopiedFiles() {
+        return this.copiedFiles.get();
+    }
+
+    /**
+     * Gets the number of source files whose output from the previous
+     * {@link #isIncremental() incremental} rewrite was kept, because neither
+     * they nor their dependencies changed.
+     *
+     * @return The number of reused files
+     */
+    public int getReusedFiles() {
+        return this.reusedFiles.get();
+    }
+
+    /**
+     * Gets the number of batches the source files were parsed in by the last
+     * rewrite, see {@link #setBatchSize(int)}.
+     *
+     * @return The number of parsed batches
+     */
+    public int getParsedBatches() {
+        return this.parsedBatches.get();
+    }
+
+    /**
+     * Gets the compiler options used to parse the source files in the last
+     * run, which depend on what the processors need (see
+     * {@link SourceProcessor#FLAG_PARSE_PROFILE}).
+     *
+     * @return The compiler options, or {@code null} before the first run
+     */
+    public Map<String, String> getCompilerOptions() {
+        return this.compilerOptions;
+    }
+
+    void recordOutput(Path sourceFile, String outputPath, boolean rewritten) {
+        (rewritten ? this.rewrittenFiles : this.copiedFiles).incrementAndGet();
+        if (this.incrementalRewrite != null) {
+            this.incrementalRewrite.recordOutput(sourceFile, outputPath);
+        }
+    }
+
+    void countReused() {
+        this.reusedFiles.incrementAndGet();
+    }
+
+    /**
+     * Gets the context shared by all threads, which is cleared at the end of
+     * each run.
+     *
+     * @return The context
+     */
     public Map<Object, Object> getContext() {
         return this.context;
     }
 
+    /**
+     * Gets the context of the parser that is processing source files on the
+     * current thread. Bindings must not be shared across parsers, so anything
+     * holding on to them should be stored here rather than in
+     * {@link #getContext()}.
+     *
+     * @return The context of the current parser, or the global context if no
+     *         parser is active on the current thread
+     */
+    public Map<Object, Object> getBindingContext() {
+        Requestor requestor = this.requestor.get();
+        return requestor != null ? requestor.context : this.context;
+    }
+
+    /**
+     * Creates the binding of a type, using the parser that is processing source
+     * files on the current thread. Bindings (and types that could not be found)
+     * are cached as long as the parser, see {@link #getBindingContext()}.
+     *
+     * @param className The binary (or internal) name of the type
+     * @return The type binding, or empty if the type could not be found
+     */
     public Optional<ITypeBinding> createTypeBinding(String className) {
         if (isAnonymousOrLocalType(className)) {
             // TODO: Anonymous or local types are currently not supported
@@ -141,8 +478,74 @@ public Optional<ITypeBinding> createTypeBinding(String className) {
             return Optional.empty();
         }
 
-        IBinding binding = this.requestor.createBindings(new String[]{'L' + className.replace('.', '/') + ';'})[0];
-        return binding != null && binding.getKind() == IBinding.TYPE ? Optional.of((ITypeBinding) binding) : Optional.empty();
+        Requestor requestor = this.requestor.get();
+        if (requestor == null) {
+            return Optional.empty();
+        }
+
+        String binaryName = className.replace('/', '.');
+        if (requestor.bindings.containsKey(binaryName)) {
+            return Optional.ofNullable(requestor.bindings.get(binaryName));
+        }
+
+        ITypeBinding binding = toTypeBinding(requestor.createBindings(new String[]{getBindingKey(binaryName)})[0]);
+        requestor.bindings.put(binaryName, binding);
+        return Optional.ofNullable(binding);
+    }
+
+    /**
+     * Creates the bindings of several types at once, see
+     * {@link #createTypeBinding(String)}. The types that are not cached yet
+     * are all looked up together, which is considerably faster than looking
+     * up each of them separately.
+     *
+     * @param classNames The binary (or internal) names of the types
+     * @return The type bindings by the given names, without the types that could
+     *     not be found
+     */
+    public Map<String, ITypeBinding> createTypeBindings(Collection<String> classNames) {
+        Requestor requestor = this.requestor.get();
+        if (requestor == null) {
+            return Collections.emptyMap();
+        }
+
+        Set<String> missing = new LinkedHashSet<>();
+        for (String className : classNames) {
+            String binaryName = className.replace('/', '.');
+            if (!isAnonymousOrLocalType(binaryName) && !requestor.bindings.containsKey(binaryName)) {
+                missing.add(binaryName);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            String[] names = missing.toArray(EMPTY_STRING_ARRAY);
+            String[] keys = new String[names.length];
+            for (int i = 0; i < names.length; i++) {
+                keys[i] = getBindingKey(names[i]);
+            }
+
+            IBinding[] bindings = requestor.createBindings(keys);
+            for (int i = 0; i < names.length; i++) {
+                requestor.bindings.put(names[i], toTypeBinding(bindings[i]));
+            }
+        }
+
+        Map<String, ITypeBinding> result = new HashMap<>();
+        for (String className : classNames) {
+            ITypeBinding binding = requestor.bindings.get(className.replace('/', '.'));
+            if (binding != null) {
+                result.put(className, binding);
+            }
+        }
+        return result;
+    }
+
+    private static String getBindingKey(String className) {
+        return 'L' + className.replace('.', '/') + ';';
+    }
+
+    private static ITypeBinding toTypeBinding(IBinding binding) {
+        return binding != null && binding.getKind() == IBinding.TYPE ? (ITypeBinding) binding : null;
     }
 
     private static boolean isAnonymousOrLocalType(String className) {
@@ -170,14 +573,39 @@ public void process(Path sourceDir) throws Exception {
     }
 
     public void rewrite(Path sourceDir, Path outputDir) throws Exception {
+        Objects.requireNonNull(outputDir, "outputDir");
+        rewrite(sourceDir, outputDir, new DirectorySink(outputDir, this.copyStrategy, this.skipIdenticalOutput));
+    }
+
+    /**
+     * Rewrites the source files into the given sink, for example directly
+     * into an {@link OutputSink#archive(Path) archive}. Since there is no
+     * output directory, {@link #isIncremental() incremental} rewrites are not
+     * supported, so all source files are processed.
+     *
+     * @param sourceDir The source directory
+     * @param sink The output sink
+     * @throws Exception If processing or writing the source files failed
+     */
+    public void rewrite(Path sourceDir, OutputSink sink) throws Exception {
+        rewrite(sourceDir, null, Objects.requireNonNull(sink, "sink"));
+    }
+
+    private void rewrite(Path sourceDir, Path outputDir, OutputSink sink) throws Exception {
         if (this.sourceDir != null) {
             throw new IllegalStateException("Instance is currently processing: " + this.sourceDir);
         }
 
         try {
             this.sourceDir = Objects.requireNonNull(sourceDir, "sourceDir");
-            this.outputDir = Objects.requireNonNull(outputDir, "outputDir");
+            this.outputDir = outputDir;
+            this.output = new OutputWriter(this.encoding, sink, this.outputThreads);
             run();
+            this.output.close();
+
+            if (this.incrementalRewrite != null) {
+                this.incrementalRewrite.finish();
+            }
         } finally {
             cleanup();
         }
@@ -186,61 +614,264 @@ public void rewrite(Path sourceDir, Path outputDir) throws Exception {
     private void cleanup() {
         this.sourceDir = null;
         this.outputDir = null;
+        if (this.output != null) {
+            this.output.abort();
+            this.output = null;
+        }
+        this.incrementalRewrite = null;
+        if (this.sourceContents != null) {
+            this.sourceContents.close();
+            this.sourceContents = null;
+        }
         this.context.clear();
+        this.classpathIndex = null;
+        if (this.classFileInheritanceProvider != null) {
+            try {
+                this.classFileInheritanceProvider.close();
+            } catch (IOException ignored) {
+                // Nothing to do about it after the run
+            }
+            this.classFileInheritanceProvider = null;
+        }
     }
 
     private void run() throws Exception {
-        ASTParser parser = ASTParser.newParser(AST.JLS10);
-
-        // Set Java version
-        Map<String, String> options = JavaCore.getOptions();
-        JavaCore.setComplianceOptions(this.sourceCompatibility, options);
-        parser.setCompilerOptions(options);
+        this.rewrittenFiles.set(0);
+        this.copiedFiles.set(0);
+        this.reusedFiles.set(0);
+        this.parsedBatches.set(0);
+        this.sourceContents = new SourceContents(this.encoding, this.memoryMappedSources);
 
         // Collect processor flags
         int flags = 0;
+        int commonFlags = ~0;
         for (SourceProcessor processor : this.processors) {
-            flags |= processor.getFlags();
+            int processorFlags = processor.getFlags();
+            if ((processorFlags & SourceProcessor.FLAG_PARSE_PROFILE) == 0) {
+                processorFlags |= SourceProcessor.FLAG_JAVADOC | SourceProcessor.FLAG_BINDINGS_RECOVERY | SourceProcessor.FLAG_PROBLEMS;
+            }
+
+            flags |= processorFlags;
+            commonFlags &= processorFlags;
         }
 
-        if ((flags & SourceProcessor.FLAG_RESOLVE_BINDINGS) != 0) {
-            // Resolve references
-            parser.setResolveBindings(true);
-            parser.setBindingsRecovery(true);
+        // Method bodies can only be skipped if no processor needs them
+        if ((commonFlags & SourceProcessor.FLAG_DECLARATIONS_ONLY) == 0) {
+            flags &= ~SourceProcessor.FLAG_DECLARATIONS_ONLY;
         }
 
-        // Set environment
-        String[] sourcePath = toArray(this.sourcePath.stream());
-        parser.setEnvironment(toArray(this.classPath.stream()), sourcePath, getEncodings(sourcePath), true);
+        Map<String, String> options = createCompilerOptions(flags);
+        this.compilerOptions = Collections.unmodifiableMap(options);
 
         // Walk directory to find source files
-        String[] sourceFiles = toArray(Files.walk(this.sourceDir, FileVisitOption.FOLLOW_LINKS)
-                .filter(p -> p.getFileName() != null && p.getFileName().toString().endsWith(JAVA_EXTENSION)));
+        List<Path> sourceFiles = Files.walk(this.sourceDir, FileVisitOption.FOLLOW_LINKS)
+                .filter(p -> p.getFileName() != null && p.getFileName().toString().endsWith(JAVA_EXTENSION))
+                .collect(Collectors.toList());
 
         for (SourceProcessor processor : this.processors) {
             processor.initialize(this);
         }
 
+        boolean filtered = false;
+        if (this.sourceFiltering || (this.incremental && this.outputDir != null)) {
+            List<SourceSummary> summaries = new ArrayList<>(sourceFiles.size());
+            for (Path sourceFile : sourceFiles) {
+                summaries.add(new SourceSummary(this, sourceFile));
+            }
+
+            // Keep the output of source files that did not change since the
+            // last incremental rewrite
+            if (this.incremental && this.outputDir != null) {
+                this.incrementalRewrite = IncrementalRewrite.create(this);
+                summaries = this.incrementalRewrite.filter(summaries);
+                filtered = summaries.size() < sourceFiles.size();
+            }
+
+            // Skip source files that are not relevant to any processor
+            sourceFiles = new ArrayList<>(summaries.size());
+            for (SourceSummary summary : summaries) {
+                if (!this.sourceFiltering || isRelevant(summary)) {
+                    sourceFiles.add(summary.getSourceFile());
+
+                    // Keep the content that was read while scanning the source file
+                    String source = summary.takeSource();
+                    if (source != null) {
+                        this.sourceContents.retain(summary.getSourceFile(), source);
+                    }
+                } else {
+                    skip(summary);
+                    filtered = true;
+                }
+            }
+        }
+
+        // Split the source files into batches that are each parsed separately
+        List<String[]> batches = createBatches(sourceFiles);
+
+        // Set environment
+        // Once the source files are split or filtered, types declared in the
+        // other source files have to be resolved from the source path
+        String[] sourcePath = toArray(batches.size() > 1 || filtered ?
+                Stream.concat(this.sourcePath.stream(), Stream.of(this.sourceDir)) : this.sourcePath.stream());
+        // With a class path index, JDT does not need to open the class path
+        // entries that do not provide any classes. It still searches the
+        // remaining entries itself, without using the index
+        List<Path> classPath = this.classpathCacheDir != null ? getClasspathIndex().getEntries() : this.classPath;
+        Environment environment = new Environment(options, flags, toArray(classPath.stream()), sourcePath, getEncodings(sourcePath));
+
         // Parse source files
-        parser.createASTs(sourceFiles, getEncodings(sourceFiles), EMPTY_STRING_ARRAY, this.requestor, null);
+        if (this.threads == 1 || batches.size() <= 1) {
+            for (String[] batch : batches) {
+                parse(environment, batch);
+            }
+        } else {
+            parseConcurrently(environment, batches);
+        }
 
         for (SourceProcessor processor : this.processors) {
             processor.finish(this);
         }
     }
 
+    private boolean isRelevant(SourceSummary summary) throws Exception {
+        for (SourceProcessor processor : this.processors) {
+            if (processor.isRelevant(summary)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void skip(SourceSummary summary) throws IOException {
+        if (this.output != null) {
+            // Copy original source file
+            String outputPath = RewriteContext.getOutputPath(summary.getPackageName(), summary.getPrimaryType());
+            this.output.copy(summary.getSourceFile(), outputPath);
+            recordOutput(summary.getSourceFile(), outputPath, false);
+        }
+    }
+
+    private List<String[]> createBatches(List<Path> sourceFiles) throws IOException {
+        if (this.batchSize > 0 || this.batchBytes > 0) {
+            return createLimitedBatches(sourceFiles);
+        }
+
+        int count = Math.max(1, Math.min(this.threads, sourceFiles.size()));
+        if (count == 1) {
+            return Collections.singletonList(toArray(sourceFiles.stream()));
+        }
+
+        // Distribute the files round-robin, so every worker gets a similar share
+        List<List<String>> batches = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            batches.add(new ArrayList<>(sourceFiles.size() / count + 1));
+        }
+        for (int i = 0; i < sourceFiles.size(); i++) {
+            batches.get(i % count).add(sourceFiles.get(i).toString());
+        }
+
+        List<String[]> result = new ArrayList<>(count);
+        for (List<String> batch : batches) {
+            result.add(batch.toArray(EMPTY_STRING_ARRAY));
+        }
+        return result;
+    }
+
+    private List<String[]> createLimitedBatches(List<Path> sourceFiles) throws IOException {
+        List<String[]> batches = new ArrayList<>();
+        List<String> batch = new ArrayList<>();
+        long bytes = 0;
+
+        for (Path sourceFile : sourceFiles) {
+            batch.add(sourceFile.toString());
+            if (this.batchBytes > 0) {
+                bytes += Files.size(sourceFile);
+            }
+
+            if ((this.batchSize > 0 && batch.size() >= this.batchSize) || (this.batchBytes > 0 && bytes >= this.batchBytes)) {
+                batches.add(batch.toArray(EMPTY_STRING_ARRAY));
+                batch.clear();
+                bytes = 0;
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            batches.add(batch.toArray(EMPTY_STRING_ARRAY));
+        }
+        return batches;
+    }
+
+    private void parse(Environment environment, String[] sourceFiles) {
+        ASTParser parser = environment.createParser();
+
+        // The requestor (and with it, everything cached in its context) only lives
+        // as long as this batch, so the bindings can be collected once it is done
+        Requestor requestor = new Requestor();
+        this.requestor.set(requestor);
+
+        try {
+            parser.createASTs(sourceFiles, getEncodings(sourceFiles), EMPTY_STRING_ARRAY, requestor, null);
+            this.parsedBatches.incrementAndGet();
+        } finally {
+            this.requestor.remove();
+            this.sourceContents.release(sourceFiles);
+
+            // Drop the bindings right away, even if a processor still refers
+            // to the binding context of this batch
+            requestor.context.clear();
+            requestor.bindings.clear();
+        }
+    }
+
+    private void parseConcurrently(Environment environment, List<String[]> batches) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(this.threads, batches.size()), newThreadFactory("mercury-worker"));
+        try {
+            List<Future<?>> futures = new ArrayList<>(batches.size());
+            for (String[] batch : batches) {
+                futures.add(executor.submit(() -> parse(environment, batch)));
+            }
+
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Exception) {
+                        throw (Exception) cause;
+                    }
+                    throw (Error) cause;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    static ThreadFactory newThreadFactory(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + '-' + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
     private SourceContext createContext(String sourceFilePath, CompilationUnit ast) {
         Path sourceFile = Paths.get(sourceFilePath);
         String fileName = sourceFile.getFileName().toString();
         String primaryType = fileName.substring(0, fileName.length() - JAVA_EXTENSION.length());
 
-        if (this.outputDir != null) {
+        if (this.output != null) {
             return new RewriteContext(this, sourceFile, ast, primaryType);
         } else {
             return new SourceContext(this, sourceFile, ast, primaryType);
         }
     }
 
+    SourceContents getSourceContents() {
+        return this.sourceContents;
+    }
+
     void accept(String sourceFilePath, CompilationUnit ast) {
         SourceContext context = createContext(sourceFilePath, ast);
 
@@ -255,6 +886,26 @@ private static String[] toArray(Stream<Path> stream) {
         return stream.map(Path::toString).toArray(String[]::new);
     }
 
+    private Map<String, String> createCompilerOptions(int flags) {
+        // Set Java version
+        Map<String, String> options = JavaCore.getOptions();
+        JavaCore.setComplianceOptions(this.sourceCompatibility, options);
+
+        // Otherwise, Javadoc comments are kept as plain comments
+        options.put(JavaCore.COMPILER_DOC_COMMENT_SUPPORT,
+                (flags & SourceProcessor.FLAG_JAVADOC) != 0 ? JavaCore.ENABLED : JavaCore.DISABLED);
+
+        if ((flags & SourceProcessor.FLAG_PROBLEMS) == 0) {
+            // Only report the problems that cannot be disabled
+            options.put(JavaCore.COMPILER_TASK_TAGS, "");
+            options.replaceAll((key, value) -> key.startsWith(PROBLEM_OPTION_PREFIX)
+                    && (value.equals(JavaCore.ERROR) || value.equals(JavaCore.WARNING) || value.equals(JavaCore.INFO)) ?
+                    JavaCore.IGNORE : value);
+        }
+
+        return options;
+    }
+
     // Assume that all files use the same encoding
     private String[] getEncodings(String[] files) {
         if (files.length == 0) {
@@ -266,8 +917,51 @@ private String[] getEncodings(String[] files) {
         return encodings;
     }
 
+    private static final class Environment {
+
+        private final Map<String, String> options;
+        private final int flags;
+        private final String[] classPath;
+        private final String[] sourcePath;
+        private final String[] sourcePathEncodings;
+
+        private Environment(Map<String, String> options, int flags, String[] classPath, String[] sourcePath, String[] sourcePathEncodings) {
+            this.options = options;
+            this.flags = flags;
+            this.classPath = classPath;
+            this.sourcePath = sourcePath;
+            this.sourcePathEncodings = sourcePathEncodings;
+        }
+
+        private ASTParser createParser() {
+            ASTParser parser = ASTParser.newParser(AST.JLS10);
+            parser.setCompilerOptions(this.options);
+
+            if ((this.flags & SourceProcessor.FLAG_RESOLVE_BINDINGS) != 0) {
+                // Resolve references
+                parser.setResolveBindings(true);
+                parser.setBindingsRecovery((this.flags & SourceProcessor.FLAG_BINDINGS_RECOVERY) != 0);
+            }
+
+            if ((this.flags & SourceProcessor.FLAG_DECLARATIONS_ONLY) != 0) {
+                parser.setIgnoreMethodBodies(true);
+            }
+
+            parser.setEnvironment(this.classPath, this.sourcePath, this.sourcePathEncodings, true);
+            return parser;
+        }
+
+    }
+
     private class Requestor extends FileASTRequestor {
 
+        private final Map<Object, Object> context = new HashMap<>();
+        /**
+         * The type bindings created, by binary name, or {@code null} for types
+         * that could not be found.
+         */
+        private final Map<String, ITypeBinding> bindings = new HashMap<>();
+
         @Override
         public void acceptAST(String sourceFilePath, CompilationUnit ast) {
             accept(sourceFilePath, ast);
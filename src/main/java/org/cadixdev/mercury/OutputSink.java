@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * The destination of the output files of a
+ * {@link Mercury#rewrite(Path, OutputSink) rewrite}.
+ *
+ * <p>The output files are identified by their path relative to the root of
+ * the output, with {@code /} as separator (e.g.
+ * {@code com/example/Test.java}). Sinks must be thread-safe, since output
+ * files are written from several threads concurrently if
+ * {@link Mercury#setThreads(int) multiple threads} or
+ * {@link Mercury#setOutputThreads(int) writer threads} are used.</p>
+ */
+public interface OutputSink {
+
+    /**
+     * Creates a sink that writes the output files into a new ZIP archive
+     * (e.g. a sources JAR), replacing the archive if it exists already. The
+     * entries are compressed on the threads writing them, so they are
+     * compressed in parallel if multiple threads are used. The entries are
+     * listed sorted by name, but their data is stored in the order they are
+     * written, which is not reproducible with multiple threads.
+     *
+     * @param archiveFile The archive file
+     * @return The archive sink
+     * @throws IOException If the archive could not be created
+     */
+    static OutputSink archive(Path archiveFile) throws IOException {
+        return new ArchiveSink(archiveFile);
+    }
+
+    /**
+     * Writes an output file.
+     *
+     * @param path The path of the output file
+     * @param content The content of the output file, only valid until this
+     *     method returns
+     * @throws IOException If the output file could not be written
+     */
+    void write(String path, ByteBuffer content) throws IOException;
+
+    /**
+     * Writes a source file as output file, as-is.
+     *
+     * @param sourceFile The source file
+     * @param path The path of the output file
+     * @throws IOException If the output file could not be written
+     */
+    void copy(Path sourceFile, String path) throws IOException;
+
+    /**
+     * Completes the output, after all output files were written
+     * successfully.
+     *
+     * @throws IOException If the output could not be completed
+     */
+    void close() throws IOException;
+
+    /**
+     * Releases the resources of the sink if the rewrite failed. The output
+     * may be incomplete afterwards.
+     */
+    default void abort() {
+    }
+
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes the output files of a {@link Mercury#rewrite(Path, Path) rewrite}
+ * and passes them to the {@link OutputSink}, either directly on the calling
+ * thread or on a separate pool of writer threads, so parsing and I/O can
+ * overlap.
+ */
+final class OutputWriter {
+
+    private static final int QUEUE_SIZE_PER_THREAD = 64;
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private final Charset encoding;
+    private final OutputSink sink;
+    private final ExecutorService executor;
+    private final Semaphore queue;
+
+    private final ThreadLocal<Encoder> encoders;
+
+    private volatile IOException failure;
+    private boolean closed;
+
+    OutputWriter(Charset encoding, OutputSink sink, int threads) {
+        this.encoding = encoding;
+        this.sink = sink;
+        this.encoders = ThreadLocal.withInitial(() -> new Encoder(this.encoding));
+        if (threads > 0) {
+            this.executor = Executors.newFixedThreadPool(threads, Mercury.newThreadFactory("mercury-writer"));
+            this.queue = new Semaphore(threads * QUEUE_SIZE_PER_THREAD);
+        } else {
+            this.executor = null;
+            this.queue = null;
+        }
+    }
+
+    void copy(Path sourceFile, String outputPath) throws IOException {
+        submit(() -> this.sink.copy(sourceFile, outputPath));
+    }
+
+    void write(String outputPath, String content) throws IOException {
+        write(outputPath, Collections.singletonList(CharBuffer.wrap(content)));
+    }
+
+    /**
+     * Writes an output file, given as a sequence of buffers that are encoded
+     * one after another (e.g. the pieces of a
+     * {@link org.cadixdev.mercury.util.PieceTableDocument}), so the content
+     * does not have to be copied into a single string first.
+     *
+     * @param outputPath The path of the output file
+     * @param content The content of the output file
+     * @throws IOException If writing any output file failed
+     */
+    void write(String outputPath, List<CharBuffer> content) throws IOException {
+        submit(() -> this.sink.write(outputPath, this.encoders.get().encode(content)));
+    }
+
+    private void submit(Task task) throws IOException {
+        checkFailure();
+
+        if (this.executor == null) {
+            task.run();
+            return;
+        }
+
+        // Block while the queue is full, so the processing threads cannot
+        // get arbitrarily far ahead of the writers
+        try {
+            this.queue.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to write output");
+        }
+
+        this.executor.execute(() -> {
+            try {
+                if (this.failure == null) {
+                    task.run();
+                }
+            } catch (IOException e) {
+                fail(e);
+            } catch (RuntimeException e) {
+                fail(new IOException(e));
+            } finally {
+                this.queue.release();
+            }
+        });
+    }
+
+    private synchronized void fail(IOException e) {
+        if (this.failure == null) {
+            this.failure = e;
+        } else {
+            this.failure.addSuppressed(e);
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        IOException failure = this.failure;
+        if (failure != null) {
+            throw new IOException("Failed to write output", failure);
+        }
+    }
+
+    /**
+     * Waits for all pending output to be written, and completes the output.
+     *
+     * @throws IOException If writing any of the output files failed
+     */
+    void close() throws IOException {
+        if (this.executor != null) {
+            this.executor.shutdown();
+            try {
+                while (!this.executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    // Keep waiting for the writers
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for output to be written");
+            }
+        }
+
+        checkFailure();
+        this.sink.close();
+        this.closed = true;
+    }
+
+    /**
+     * Discards all pending output, unless the output was
+     * {@link #close() completed}.
+     */
+    void abort() {
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+        }
+        if (!this.closed) {
+            this.sink.abort();
+        }
+    }
+
+    @FunctionalInterface
+    private interface Task {
+
+        void run() throws IOException;
+
+    }
+
+    /**
+     * Encodes output files into a reusable buffer, owned by a single thread.
+     */
+    private static final class Encoder {
+
+        private final CharsetEncoder encoder;
+        private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+        /**
+         * The characters left over at the end of the previous buffer, which
+         * can only be encoded together with the next one (e.g. a surrogate
+         * pair split across two buffers).
+         */
+        private final StringBuilder pending = new StringBuilder();
+
+        private Encoder(Charset encoding) {
+            // Replace malformed input like OutputStreamWriter does
+            this.encoder = encoding.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+
+        private ByteBuffer encode(List<CharBuffer> content) throws CharacterCodingException {
+            long length = 0;
+            for (CharBuffer in : content) {
+                length += in.remaining();
+            }
+
+            int capacity = (int) Math.min(Integer.MAX_VALUE, (long) (length * (double) this.encoder.averageBytesPerChar()));
+            if (this.buffer.capacity() < capacity) {
+                this.buffer = ByteBuffer.allocate(capacity);
+            }
+
+            this.encoder.reset();
+            this.buffer.clear();
+            this.pending.setLength(0);
+
+            for (CharBuffer in : content) {
+                // Complete the characters left over from the previous buffer first
+                while (this.pending.length() > 0 && in.hasRemaining()) {
+                    this.pending.append(in.get());
+                    CharBuffer joined = CharBuffer.wrap(this.pending);
+                    encode(joined, false);
+                    this.pending.delete(0, joined.position());
+                }
+
+                if (this.pending.length() == 0) {
+                    encode(in, false);
+                    this.pending.append(in);
+                }
+            }
+
+            encode(CharBuffer.wrap(this.pending), true);
+            this.pending.setLength(0);
+
+            CoderResult result;
+            while ((result = this.encoder.flush(this.buffer)).isOverflow()) {
+                grow();
+            }
+            if (result.isError()) {
+                result.throwException();
+            }
+
+            this.buffer.flip();
+            return this.buffer;
+        }
+
+        private void encode(CharBuffer in, boolean endOfInput) throws CharacterCodingException {
+            while (true) {
+                CoderResult result = this.encoder.encode(in, this.buffer, endOfInput);
+                if (result.isUnderflow()) {
+                    return;
+                }
+                if (result.isOverflow()) {
+                    grow();
+                } else {
+                    result.throwException();
+                }
+            }
+        }
+
+        private void grow() {
+            ByteBuffer buffer = ByteBuffer.allocate(this.buffer.capacity() * 2);
+            this.buffer.flip();
+            buffer.put(this.buffer);
+            this.buffer = buffer;
+        }
+
+    }
+
+}
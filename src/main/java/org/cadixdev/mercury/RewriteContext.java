@@ -13,22 +13,31 @@
 import static org.cadixdev.mercury.Mercury.JAVA_EXTENSION;
 
 import org.cadixdev.mercury.jdt.rewrite.imports.ImportRewrite;
+import org.cadixdev.mercury.util.PieceTableDocument;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.SimpleName;
 import org.eclipse.jdt.core.dom.rewrite.ASTRewrite;
-import org.eclipse.jface.text.Document;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.text.edits.DeleteEdit;
+import org.eclipse.text.edits.InsertEdit;
 import org.eclipse.text.edits.MultiTextEdit;
+import org.eclipse.text.edits.RangeMarker;
+import org.eclipse.text.edits.ReplaceEdit;
 import org.eclipse.text.edits.TextEdit;
 
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.nio.file.Files;
+import java.nio.CharBuffer;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.StringJoiner;
 
 public final class RewriteContext extends SourceContext {
 
@@ -36,6 +45,12 @@ public final class RewriteContext extends SourceContext {
     private ASTRewrite rewrite;
     private ImportRewrite importRewrite;
 
+    /**
+     * The identifiers renamed with {@link #renameIdentifier(SimpleName, String)}
+     * that have not been recorded in the {@link ASTRewrite} (yet).
+     */
+    private Map<SimpleName, String> renames;
+
     RewriteContext(Mercury mercury, Path sourceFile, CompilationUnit compilationUnit, String primaryType) {
         super(mercury, sourceFile, compilationUnit, primaryType);
     }
@@ -55,10 +70,95 @@ public Optional<ASTRewrite> getASTRewrite() {
     public ASTRewrite createASTRewrite() {
         if (this.rewrite == null) {
             this.rewrite = ASTRewrite.create(getCompilationUnit().getAST());
+
+            // Structural changes may replace the renamed nodes, so let the
+            // rewrite handle the renames as well
+            if (this.renames != null) {
+                this.renames.forEach((node, newName) -> this.rewrite.set(node, SimpleName.IDENTIFIER_PROPERTY, newName, null));
+                this.renames = null;
+            }
         }
         return this.rewrite;
     }
 
+    /**
+     * Renames the given identifier. If {@link Mercury#isDirectPatching()
+     * direct patching} is enabled, the new name is patched into the source
+     * text directly, unless an {@link ASTRewrite} is needed for the
+     * compilation unit anyway.
+     *
+     * @param node The name to rename
+     * @param newName The new identifier
+     */
+    public void renameIdentifier(SimpleName node, String newName) {
+        Objects.requireNonNull(newName, "newName");
+        if (this.rewrite != null || !getMercury().isDirectPatching()) {
+            createASTRewrite().set(node, SimpleName.IDENTIFIER_PROPERTY, newName, null);
+            return;
+        }
+
+        if (this.renames == null) {
+            this.renames = new IdentityHashMap<>();
+        }
+        this.renames.put(node, newName);
+    }
+
+    /**
+     * Gets the identifier of the given name, including changes made by
+     * {@link #renameIdentifier(SimpleName, String)}.
+     *
+     * @param node The name
+     * @return The (new) identifier
+     */
+    public String getIdentifier(SimpleName node) {
+        if (this.rewrite != null) {
+            return (String) this.rewrite.get(node, SimpleName.IDENTIFIER_PROPERTY);
+        }
+        if (this.renames != null) {
+            String newName = this.renames.get(node);
+            if (newName != null) {
+                return newName;
+            }
+        }
+        return node.getIdentifier();
+    }
+
+    private List<Map.Entry<SimpleName, String>> sortRenames() {
+        List<Map.Entry<SimpleName, String>> renames = new ArrayList<>(this.renames.entrySet());
+        renames.sort(Comparator.comparingInt(e -> e.getKey().getStartPosition()));
+        return renames;
+    }
+
+    /**
+     * Applies the renames to the source in a single pass.
+     */
+    private String patchRenames(String source) {
+        List<Map.Entry<SimpleName, String>> renames = sortRenames();
+
+        int length = source.length();
+        for (Map.Entry<SimpleName, String> rename : renames) {
+            length += rename.getValue().length() - rename.getKey().getLength();
+        }
+
+        StringBuilder builder = new StringBuilder(length);
+        int pos = 0;
+        for (Map.Entry<SimpleName, String> rename : renames) {
+            SimpleName node = rename.getKey();
+            builder.append(source, pos, node.getStartPosition()).append(rename.getValue());
+            pos = node.getStartPosition() + node.getLength();
+        }
+        return builder.append(source, pos, source.length()).toString();
+    }
+
+    private TextEdit createRenameEdit() {
+        MultiTextEdit edit = new MultiTextEdit();
+        for (Map.Entry<SimpleName, String> rename : sortRenames()) {
+            SimpleName node = rename.getKey();
+            edit.addChild(new ReplaceEdit(node.getStartPosition(), node.getLength(), rename.getValue()));
+        }
+        return edit;
+    }
+
     public ImportRewrite createImportRewrite() {
         if (this.importRewrite == null) {
             this.importRewrite = ImportRewrite.create(getCompilationUnit(), true);
@@ -74,21 +174,53 @@ public void addEdit(TextEdit edit) {
         this.edit.addChild(Objects.requireNonNull(edit, "edit"));
     }
 
-    private TextEdit rewrite() throws CoreException, IOException {
-        if (this.rewrite == null && this.importRewrite == null && this.edit == null) {
-            return null;
-        }
-
+    private TextEdit rewrite() throws CoreException, IOException, BadLocationException {
         TextEdit edit = null;
         if (this.rewrite != null) {
             edit = this.rewrite.rewriteAST(loadDocument(), null);
+        } else if (this.renames != null) {
+            edit = createRenameEdit();
         }
 
-        if (this.importRewrite != null) {
+        // The import rewrite is created for every file remapped, but usually
+        // does not end up adding or removing any imports
+        if (this.importRewrite != null && this.importRewrite.hasRecordedChanges()) {
             edit = combineEdit(edit, this.importRewrite.rewriteImports(loadDocument(), null));
         }
 
-        return combineEdit(edit, this.edit);
+        edit = combineEdit(edit, this.edit);
+        return edit != null && !isNoOp(edit, loadDocument()) ? edit : null;
+    }
+
+    /**
+     * Checks whether applying the given edit would leave the document as-is,
+     * e.g. because it only replaces identifiers with the same name.
+     */
+    private static boolean isNoOp(TextEdit edit, IDocument document) throws BadLocationException {
+        if (edit instanceof ReplaceEdit) {
+            ReplaceEdit replace = (ReplaceEdit) edit;
+            if (!replace.getText().equals(document.get(replace.getOffset(), replace.getLength()))) {
+                return false;
+            }
+        } else if (edit instanceof InsertEdit) {
+            if (!((InsertEdit) edit).getText().isEmpty()) {
+                return false;
+            }
+        } else if (edit instanceof DeleteEdit) {
+            if (edit.getLength() != 0) {
+                return false;
+            }
+        } else if (!(edit instanceof MultiTextEdit) && !(edit instanceof RangeMarker)) {
+            // Other edits (e.g. moving or copying text) are not checked
+            return false;
+        }
+
+        for (TextEdit child : edit.getChildren()) {
+            if (!isNoOp(child, document)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     private static TextEdit combineEdit(TextEdit before, TextEdit edit) {
@@ -106,41 +238,75 @@ private static TextEdit combineEdit(TextEdit before, TextEdit edit) {
         return before;
     }
 
+    /**
+     * Gets the path of the output file, relative to the root of the output
+     * and with {@code /} as separator (see {@link OutputSink}).
+     */
+    static String getOutputPath(String packageName, String primaryType) {
+        String path = primaryType + JAVA_EXTENSION;
+        if (!packageName.isEmpty()) {
+            path = packageName.replace('.', '/') + '/' + path;
+        }
+        return path;
+    }
+
     @Override
     void process(List<SourceProcessor> processors) throws Exception {
         super.process(processors);
 
-        Path outputDir = getMercury().getOutputDir();
-
-        String path = this.primaryType + JAVA_EXTENSION;
-        if (!this.packageName.isEmpty()) {
-            StringJoiner joiner = new StringJoiner(outputDir.getFileSystem().getSeparator());
+        String outputPath = getOutputPath(this.packageName, this.primaryType);
+        OutputWriter output = getMercury().getOutput();
 
-            for (String part : this.packageName.split("\\.")) {
-                joiner.add(part);
-            }
-            joiner.add(path);
-
-            path = joiner.toString();
+        if (this.renames != null && this.edit == null
+                && (this.importRewrite == null || !this.importRewrite.hasRecordedChanges())) {
+            // Only identifiers were renamed, so there is no need for text edits
+            String source = loadDocument().get();
+            write(output, outputPath, source, Collections.singletonList(CharBuffer.wrap(patchRenames(source))));
+            return;
         }
 
-        Path outputFile = outputDir.resolve(path);
-        Files.createDirectories(outputFile.getParent());
-
         TextEdit edit = rewrite();
         if (edit == null) {
-            // Copy original source file
-            Files.copy(getSourceFile(), outputFile, StandardCopyOption.REPLACE_EXISTING);
+            copy(output, outputPath);
             return;
         }
 
-        // Save the rewritten source file
-        Document document = loadDocument();
+        // Save the rewritten source file. The edits are applied to a copy
+        // of the source that handles many edits on large files efficiently,
+        // and it is encoded from its pieces rather than copied into a string
+        String source = loadDocument().get();
+        PieceTableDocument document = new PieceTableDocument(source);
         edit.apply(document, TextEdit.NONE);
+        write(output, outputPath, source, document.getPieces());
+    }
 
-        try (OutputStreamWriter writer = new OutputStreamWriter(Files.newOutputStream(outputFile), getMercury().getEncoding())) {
-            writer.write(document.get());
+    private void write(OutputWriter output, String outputPath, String source, List<CharBuffer> content) throws IOException {
+        if (isUnchanged(source, content)) {
+            // The edits cancel each other out
+            copy(output, outputPath);
+            return;
         }
+
+        output.write(outputPath, content);
+        getMercury().recordOutput(getSourceFile(), outputPath, true);
+    }
+
+    private static boolean isUnchanged(String source, List<CharBuffer> content) {
+        int offset = 0;
+        for (CharBuffer piece : content) {
+            int end = offset + piece.remaining();
+            if (end > source.length() || !piece.equals(CharBuffer.wrap(source, offset, end))) {
+                return false;
+            }
+            offset = end;
+        }
+        return offset == source.length();
+    }
+
+    private void copy(OutputWriter output, String outputPath) throws IOException {
+        // Copy original source file
+        output.copy(getSourceFile(), outputPath);
+        getMercury().recordOutput(getSourceFile(), outputPath, false);
     }
 
 }
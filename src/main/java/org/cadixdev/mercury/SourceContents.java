@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury;
+
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Reads and decodes the content of the source files for
+ * {@link SourceContext#loadDocument()} and {@link SourceSummary}, so a source
+ * file that is scanned before it is parsed is not read by Mercury again.
+ *
+ * <p>Note that JDT still reads the source files itself while parsing, since
+ * the batch parser only accepts file paths.</p>
+ */
+final class SourceContents {
+
+    private final Charset encoding;
+    private final boolean memoryMapped;
+
+    /**
+     * The source files that were already read while scanning them. They are
+     * only softly referenced, since they are kept until the source file is
+     * processed (which might be much later if the source files are parsed in
+     * batches).
+     */
+    private final ConcurrentMap<Path, SoftReference<String>> retained = new ConcurrentHashMap<>();
+
+    SourceContents(Charset encoding, boolean memoryMapped) {
+        this.encoding = encoding;
+        this.memoryMapped = memoryMapped;
+    }
+
+    ByteBuffer readBytes(Path sourceFile) throws IOException {
+        if (!this.memoryMapped) {
+            return ByteBuffer.wrap(Files.readAllBytes(sourceFile));
+        }
+
+        try (FileChannel channel = FileChannel.open(sourceFile, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    String decode(ByteBuffer bytes) {
+        // Malformed input is replaced, just like with new String(bytes, encoding)
+        return this.encoding.decode(bytes).toString();
+    }
+
+    /**
+     * Gets the content of a source file, reading it only if it was not
+     * retained while scanning it.
+     *
+     * @param sourceFile The source file
+     * @return The decoded content
+     * @throws IOException If the source file could not be read
+     */
+    String read(Path sourceFile) throws IOException {
+        SoftReference<String> reference = this.retained.remove(sourceFile);
+        if (reference != null) {
+            String content = reference.get();
+            if (content != null) {
+                return content;
+            }
+        }
+
+        return decode(readBytes(sourceFile));
+    }
+
+    /**
+     * Keeps the content of a source file that was read already for
+     * {@link #read(Path)}.
+     *
+     * @param sourceFile The source file
+     * @param content The decoded content
+     */
+    void retain(Path sourceFile, String content) {
+        this.retained.put(sourceFile, new SoftReference<>(content));
+    }
+
+    /**
+     * Drops the retained content of the given source files if it was not
+     * read.
+     *
+     * @param sourceFiles The source files
+     */
+    void release(String[] sourceFiles) {
+        for (String path : sourceFiles) {
+            this.retained.remove(Paths.get(path));
+        }
+    }
+
+    void close() {
+        this.retained.clear();
+    }
+
+}
@@ -10,15 +10,20 @@
 
 package org.cadixdev.mercury;
 
+import org.eclipse.jdt.core.dom.ASTVisitor;
 import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.IBinding;
+import org.eclipse.jdt.core.dom.Name;
 import org.eclipse.jdt.core.dom.PackageDeclaration;
 import org.eclipse.jface.text.Document;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class SourceContext {
 
@@ -32,6 +37,12 @@ public class SourceContext {
 
     private Document document;
 
+    /**
+     * The bindings resolved through {@link #resolveBinding(Name)}, including
+     * names without binding.
+     */
+    private final Map<Name, IBinding> bindings = new IdentityHashMap<>();
+
     SourceContext(Mercury mercury, Path sourceFile, CompilationUnit compilationUnit, String primaryType) {
         this.mercury = mercury;
         this.sourceFile = sourceFile;
@@ -72,15 +83,48 @@ public final String getQualifiedPrimaryType() {
 
     public final Document loadDocument() throws IOException {
         if (this.document == null) {
-            this.document = new Document(new String(Files.readAllBytes(this.sourceFile), this.mercury.getEncoding()));
+            this.document = new Document(this.mercury.getSourceContents().read(this.sourceFile));
         }
         return this.document;
     }
 
+    /**
+     * Resolves the binding of a name in the compilation unit. The binding is
+     * only resolved once, and then shared by all processors.
+     *
+     * @param name The name
+     * @return The binding, or {@code null} if it could not be resolved
+     */
+    public final IBinding resolveBinding(Name name) {
+        IBinding binding = this.bindings.get(name);
+        if (binding == null && !this.bindings.containsKey(name)) {
+            binding = name.resolveBinding();
+            this.bindings.put(name, binding);
+        }
+        return binding;
+    }
+
     void process(List<SourceProcessor> processors) throws Exception {
+        List<ASTVisitor> visitors = new ArrayList<>();
         for (SourceProcessor processor : processors) {
-            processor.process(this);
+            ASTVisitor visitor = processor.createVisitor(this);
+            if (visitor != null) {
+                visitors.add(visitor);
+            } else {
+                accept(visitors);
+                processor.process(this);
+            }
         }
+        accept(visitors);
+    }
+
+    private void accept(List<ASTVisitor> visitors) {
+        if (visitors.isEmpty()) {
+            return;
+        }
+
+        this.compilationUnit.accept(visitors.size() == 1 ? visitors.get(0) : new CompositeVisitor(visitors));
+        visitors.clear();
     }
 
 }
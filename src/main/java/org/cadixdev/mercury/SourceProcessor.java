@@ -10,10 +10,47 @@
 
 package org.cadixdev.mercury;
 
+import org.eclipse.jdt.core.dom.ASTVisitor;
+
 public interface SourceProcessor {
 
     int FLAG_RESOLVE_BINDINGS = 1 << 0;
 
+    /**
+     * Indicates that the processor only looks at declarations, but never
+     * inside method bodies. If all processors set this flag, method bodies
+     * (including the local and anonymous classes declared in them) are not
+     * parsed at all.
+     */
+    int FLAG_DECLARATIONS_ONLY = 1 << 1;
+
+    /**
+     * Indicates that the processor declares what it needs from the parser
+     * with {@link #FLAG_JAVADOC}, {@link #FLAG_BINDINGS_RECOVERY} and
+     * {@link #FLAG_PROBLEMS}. Processors without this flag are assumed to
+     * need all of them.
+     */
+    int FLAG_PARSE_PROFILE = 1 << 2;
+
+    /**
+     * Indicates that the processor needs the tags of Javadoc comments to be
+     * parsed into DOM nodes.
+     */
+    int FLAG_JAVADOC = 1 << 3;
+
+    /**
+     * Indicates that the processor needs bindings to be recovered for code
+     * that references missing types (e.g. due to an incomplete classpath).
+     * Only has an effect together with {@link #FLAG_RESOLVE_BINDINGS}.
+     */
+    int FLAG_BINDINGS_RECOVERY = 1 << 4;
+
+    /**
+     * Indicates that the processor needs the problems (including warnings and
+     * task tags) reported by the compiler.
+     */
+    int FLAG_PROBLEMS = 1 << 5;
+
     default int getFlags() {
         return 0;
     }
@@ -21,6 +58,72 @@ default int getFlags() {
     default void initialize(Mercury mercury) throws Exception {
     }
 
+    /**
+     * Checks whether the given source file may need to be processed, before it
+     * is parsed. If no processor considers a file relevant and
+     * {@link Mercury#isSourceFiltering() source filtering} is enabled, the file
+     * is not parsed at all and copied as-is.
+     *
+     * @param summary The summary of the source file
+     * @return {@code false} if processing the file would never change it
+     * @throws Exception If the source file could not be checked
+     */
+    default boolean isRelevant(SourceSummary summary) throws Exception {
+        return true;
+    }
+
+    /**
+     * Gets a fingerprint of the configuration of this processor, used to
+     * decide whether the output of an {@link Mercury#isIncremental()
+     * incremental} rewrite can be reused. It must change whenever the
+     * processor could produce different output for the same source file.
+     *
+     * <p>Processors that cannot be fingerprinted, or that need to see every
+     * source file (e.g. to collect information), return {@code null}, which
+     * causes all source files to be processed.</p>
+     *
+     * @return The fingerprint, or {@code null} if not supported
+     */
+    default String getFingerprint() {
+        return null;
+    }
+
+    /**
+     * Checks whether the output of an unchanged source file, produced by a
+     * previous {@link Mercury#isIncremental() incremental} rewrite with a
+     * different configuration of this processor, can be kept as-is. Only
+     * called if the {@link #getFingerprint() fingerprint} of this processor
+     * changed since the previous rewrite.
+     *
+     * @param previousFingerprint The fingerprint of the previous configuration
+     * @param summary The summary of the source file
+     * @return {@code true} if processing the file would produce the same output
+     * @throws Exception If the source file could not be checked
+     */
+    default boolean isOutputReusable(String previousFingerprint, SourceSummary summary) throws Exception {
+        return false;
+    }
+
+    /**
+     * Creates a visitor that processes the given source file, instead of
+     * calling {@link #process(SourceContext)}. The visitors of consecutive
+     * processors are combined, so the compilation unit is only traversed once
+     * for all of them.
+     *
+     * <p>Processors whose processing is more than a single traversal of the
+     * compilation unit return {@code null}. Visitors should resolve the
+     * bindings of names through {@link SourceContext#resolveBinding(org.eclipse.jdt.core.dom.Name)},
+     * so they are shared with the other visitors.</p>
+     *
+     * @param context The context of the source file
+     * @return The visitor, or {@code null} to call
+     *     {@link #process(SourceContext)} instead
+     * @throws Exception If the visitor could not be created
+     */
+    default ASTVisitor createVisitor(SourceContext context) throws Exception {
+        return null;
+    }
+
     void process(SourceContext context) throws Exception;
 
     default void finish(Mercury mercury) throws Exception {
@@ -10,10 +10,35 @@
 
 package org.cadixdev.mercury;
 
+import org.eclipse.jdt.core.dom.ASTVisitor;
+
 public interface SourceRewriter extends SourceProcessor {
 
     void rewrite(RewriteContext context) throws Exception;
 
+    /**
+     * Creates a visitor that rewrites the given source file, instead of
+     * calling {@link #rewrite(RewriteContext)}.
+     *
+     * @param context The context of the source file
+     * @return The visitor, or {@code null} to call
+     *     {@link #rewrite(RewriteContext)} instead
+     * @throws Exception If the visitor could not be created
+     * @see #createVisitor(SourceContext)
+     */
+    default ASTVisitor createRewriteVisitor(RewriteContext context) throws Exception {
+        return null;
+    }
+
+    @Override
+    default ASTVisitor createVisitor(SourceContext context) throws Exception {
+        if (context instanceof RewriteContext) {
+            return createRewriteVisitor((RewriteContext) context);
+        } else {
+            throw new IllegalArgumentException("Cannot rewrite without RewriteContext");
+        }
+    }
+
     @Override
     default void process(SourceContext context) throws Exception {
         if (context instanceof RewriteContext) {
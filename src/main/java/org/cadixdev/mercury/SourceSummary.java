@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury;
+
+import static org.cadixdev.mercury.Mercury.JAVA_EXTENSION;
+
+import org.cadixdev.mercury.util.Fingerprint;
+import org.eclipse.jdt.core.ToolFactory;
+import org.eclipse.jdt.core.compiler.IScanner;
+import org.eclipse.jdt.core.compiler.ITerminalSymbols;
+import org.eclipse.jdt.core.compiler.InvalidInputException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A lightweight view of a source file, obtained by only scanning its tokens
+ * rather than parsing it. Used by {@link SourceProcessor#isRelevant(SourceSummary)}
+ * to decide whether a source file needs to be parsed at all.
+ */
+public final class SourceSummary {
+
+    private static final String RECORD = "record";
+
+    private final Mercury mercury;
+    private final Path sourceFile;
+
+    private String packageName;
+    private Set<String> identifiers;
+    private Set<String> javadocIdentifiers;
+    private Set<String> declaredTypes;
+    private String contentHash;
+
+    /**
+     * The content of the source file once scanned, until it is
+     * {@link #takeSource() taken} to avoid reading the file again.
+     */
+    private String source;
+
+    SourceSummary(Mercury mercury, Path sourceFile) {
+        this.mercury = mercury;
+        this.sourceFile = sourceFile;
+    }
+
+    public Mercury getMercury() {
+        return this.mercury;
+    }
+
+    public Path getSourceFile() {
+        return this.sourceFile;
+    }
+
+    public String getPrimaryType() {
+        String fileName = this.sourceFile.getFileName().toString();
+        return fileName.substring(0, fileName.length() - JAVA_EXTENSION.length());
+    }
+
+    /**
+     * Gets the name of the package declared in the source file.
+     *
+     * @return The package name, or an empty string for the default package
+     * @throws IOException If the source file could not be read
+     */
+    public String getPackageName() throws IOException {
+        scan();
+        return this.packageName;
+    }
+
+    /**
+     * Gets all identifiers appearing in the source code, excluding comments.
+     *
+     * @return The identifiers
+     * @throws IOException If the source file could not be read
+     */
+    public Set<String> getIdentifiers() throws IOException {
+        scan();
+        return this.identifiers;
+    }
+
+    /**
+     * Gets all words in Javadoc comments that could be Java identifiers.
+     *
+     * @return The identifiers in Javadoc comments
+     * @throws IOException If the source file could not be read
+     */
+    public Set<String> getJavadocIdentifiers() throws IOException {
+        scan();
+        return this.javadocIdentifiers;
+    }
+
+    /**
+     * Gets the simple names of all types declared in the source file,
+     * including nested and local types.
+     *
+     * @return The declared type names
+     * @throws IOException If the source file could not be read
+     */
+    public Set<String> getDeclaredTypes() throws IOException {
+        scan();
+        return this.declaredTypes;
+    }
+
+    /**
+     * Gets a hash of the content of the source file, only available for
+     * {@link Mercury#isIncremental() incremental} rewrites.
+     *
+     * @return The content hash
+     * @throws IOException If the source file could not be read
+     */
+    String getContentHash() throws IOException {
+        scan();
+        return this.contentHash;
+    }
+
+    String takeSource() {
+        String source = this.source;
+        this.source = null;
+        return source;
+    }
+
+    private void scan() throws IOException {
+        if (this.identifiers != null) {
+            return;
+        }
+
+        SourceContents contents = this.mercury.getSourceContents();
+        ByteBuffer bytes = contents.readBytes(this.sourceFile);
+        if (this.mercury.isIncremental()) {
+            this.contentHash = Fingerprint.hash(bytes.duplicate());
+        }
+
+        this.source = contents.decode(bytes);
+        char[] source = this.source.toCharArray();
+        IScanner scanner = ToolFactory.createScanner(true, false, false, this.mercury.getSourceCompatibility());
+        scanner.setSource(source);
+
+        Set<String> identifiers = new HashSet<>();
+        Set<String> javadocIdentifiers = new HashSet<>();
+        Set<String> declaredTypes = new HashSet<>();
+        StringBuilder packageName = null;
+        boolean inPackage = false;
+        boolean inTypeDeclaration = false;
+        boolean inRecordDeclaration = false;
+        String recordName = null;
+
+        try {
+            int previous = ITerminalSymbols.TokenNameEOF;
+            int token;
+            while ((token = scanner.getNextToken()) != ITerminalSymbols.TokenNameEOF) {
+                // record is only a contextual keyword, so it only declares a
+                // record if followed by a name and its header (or type
+                // parameters), as opposed to a type that is named record
+                if (recordName != null) {
+                    if (token == ITerminalSymbols.TokenNameLPAREN || token == ITerminalSymbols.TokenNameLESS) {
+                        declaredTypes.add(recordName);
+                    }
+                    recordName = null;
+                }
+
+                boolean record = false;
+                switch (token) {
+                    case ITerminalSymbols.TokenNameIdentifier:
+                        String identifier = new String(scanner.getCurrentTokenSource());
+                        identifiers.add(identifier);
+                        if (inPackage) {
+                            packageName.append(identifier);
+                        }
+                        if (inTypeDeclaration) {
+                            declaredTypes.add(identifier);
+                            inTypeDeclaration = false;
+                        } else if (inRecordDeclaration) {
+                            recordName = identifier;
+                        } else {
+                            record = previous != ITerminalSymbols.TokenNameDOT && identifier.equals(RECORD);
+                        }
+                        break;
+                    case ITerminalSymbols.TokenNameRestrictedIdentifierrecord:
+                        // The scanner already told the keyword apart
+                        inTypeDeclaration = true;
+                        break;
+                    case ITerminalSymbols.TokenNameclass:
+                    case ITerminalSymbols.TokenNameinterface:
+                    case ITerminalSymbols.TokenNameenum:
+                        // Exclude class literals (Type.class). Annotation
+                        // types (@interface) are scanned as @ and interface
+                        inTypeDeclaration = previous != ITerminalSymbols.TokenNameDOT;
+                        break;
+                    case ITerminalSymbols.TokenNameCOMMENT_JAVADOC:
+                        collectIdentifiers(scanner.getCurrentTokenSource(), javadocIdentifiers);
+                        break;
+                    case ITerminalSymbols.TokenNamepackage:
+                        if (packageName == null) {
+                            packageName = new StringBuilder();
+                            inPackage = true;
+                        }
+                        break;
+                    case ITerminalSymbols.TokenNameDOT:
+                        if (inPackage) {
+                            packageName.append('.');
+                        }
+                        break;
+                    case ITerminalSymbols.TokenNameSEMICOLON:
+                        inPackage = false;
+                        break;
+                }
+                inRecordDeclaration = record;
+                previous = token;
+            }
+        } catch (InvalidInputException e) {
+            // Fall back to treating every word in the file as an identifier
+            // (and potential type declaration), which errs on the side of
+            // considering the file relevant
+            collectIdentifiers(source, identifiers);
+            declaredTypes.addAll(identifiers);
+        }
+
+        this.packageName = packageName != null ? packageName.toString() : "";
+        this.javadocIdentifiers = Collections.unmodifiableSet(javadocIdentifiers);
+        this.declaredTypes = Collections.unmodifiableSet(declaredTypes);
+        this.identifiers = Collections.unmodifiableSet(identifiers);
+    }
+
+    private static void collectIdentifiers(char[] text, Set<String> identifiers) {
+        int start = -1;
+        for (int i = 0; i <= text.length; i++) {
+            if (i < text.length && (start >= 0 ? Character.isJavaIdentifierPart(text[i]) : Character.isJavaIdentifierStart(text[i]))) {
+                if (start < 0) {
+                    start = i;
+                }
+            } else if (start >= 0) {
+                identifiers.add(new String(text, start, i - start));
+                start = -1;
+            }
+        }
+    }
+
+}
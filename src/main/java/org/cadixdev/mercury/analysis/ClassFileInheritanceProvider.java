@@ -0,0 +1,762 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.analysis;
+
+import org.cadixdev.bombe.analysis.InheritanceProvider;
+import org.cadixdev.bombe.analysis.InheritanceType;
+import org.cadixdev.bombe.type.signature.FieldSignature;
+import org.cadixdev.bombe.type.signature.MethodSignature;
+import org.cadixdev.mercury.ClasspathIndex;
+import org.cadixdev.mercury.Mercury;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.ProviderNotFoundException;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * An {@link InheritanceProvider} that reads the class files on the class path
+ * directly, without JDT. Unlike {@link MercuryInheritanceProvider}, it does not
+ * need a parser, so it can be used before or alongside parsing.
+ *
+ * <p>Class files are looked up in the {@link Mercury#getClassPath() class
+ * path} (using the {@link Mercury#getClasspathIndex() class path index}),
+ * and then in the JDK of the running JVM, like JDT does for the JDK classes:
+ * in its modules ({@code jrt:/}) on Java 9 and later, or in its boot class
+ * path on Java 8. Classes that are in neither are not found. Only the constant
+ * pool and the declarations of a class file are read, and each class is only
+ * read once. The provider is safe to query from multiple threads.</p>
+ *
+ * <p>With a cache directory (see {@link Mercury#setClasspathCacheDir(Path)}),
+ * the classes of each JAR on the class path are stored on disk, keyed by the
+ * {@link ClasspathIndex#getFingerprint(Path) fingerprint} of the JAR. Later
+ * runs (in any JVM) load the classes of unchanged JARs from the cache, and only
+ * read the class files of new or changed JARs. The classes of a JAR are read
+ * all at once then, rather than one by one as they are needed. Classes in
+ * directories or from the running JVM are not cached.</p>
+ */
+public final class ClassFileInheritanceProvider implements InheritanceProvider, Closeable {
+
+    private static final String CLASS_EXTENSION = ".class";
+
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int ACC_INTERFACE = 0x0200;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_DYNAMIC = 17;
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    private static final int CACHE_MAGIC = 0x4D524348; // MRCH
+    private static final int CACHE_VERSION = 1;
+    private static final String CACHE_DIR = "inheritance";
+
+    /**
+     * The modules of the running JVM, or {@code null} before Java 9.
+     */
+    private static final FileSystem JRT = getJrtFileSystem();
+
+    /**
+     * The boot class path of the running JVM before Java 9, or empty.
+     */
+    private static final List<Path> BOOT_CLASS_PATH = getBootClassPath();
+
+    private final ClasspathIndex index;
+    /**
+     * The directory to store the classes of each JAR in, or {@code null} to
+     * read the classes one by one.
+     */
+    private final Path cacheDir;
+
+    /**
+     * The classes read so far, or empty for classes that could not be found.
+     */
+    private final ConcurrentMap<String, Optional<ClassInfo>> classes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Path, ZipFile> archives = new ConcurrentHashMap<>();
+    /**
+     * The classes of the JARs loaded from (or stored in) the cache, by
+     * internal name.
+     */
+    private final ConcurrentMap<Path, Map<String, ClassFileInfo>> cachedArchives = new ConcurrentHashMap<>();
+    /**
+     * The locks for loading the classes of a JAR, so each JAR is only loaded
+     * once even if its classes are queried concurrently.
+     */
+    private final ConcurrentMap<Path, Object> archiveLocks = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    /**
+     * Gets the provider for the class path of the given Mercury instance,
+     * see {@link Mercury#getClassFileInheritanceProvider()}. The
+     * {@link Mercury#getClasspathCacheDir() class path cache directory} is
+     * used to cache the classes of the JARs, if set.
+     *
+     * @param mercury The Mercury instance
+     * @return The inheritance provider
+     * @throws UncheckedIOException If the class path could not be indexed
+     */
+    public static ClassFileInheritanceProvider get(Mercury mercury) {
+        try {
+            return mercury.getClassFileInheritanceProvider();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Creates a new provider, which must be {@link #close() closed} once it
+     * is no longer needed.
+     *
+     * @param index The index of the class path
+     * @return The inheritance provider
+     */
+    public static ClassFileInheritanceProvider create(ClasspathIndex index) {
+        return create(index, null);
+    }
+
+    /**
+     * Creates a new provider that caches the classes of the JARs on the class
+     * path in the given directory, which must be {@link #close() closed} once
+     * it is no longer needed.
+     *
+     * @param index The index of the class path
+     * @param cacheDir The cache directory, or {@code null} to not cache
+     *     anything
+     * @return The inheritance provider
+     */
+    public static ClassFileInheritanceProvider create(ClasspathIndex index, Path cacheDir) {
+        return new ClassFileInheritanceProvider(index, cacheDir != null ? cacheDir.resolve(CACHE_DIR) : null);
+    }
+
+    private ClassFileInheritanceProvider(ClasspathIndex index, Path cacheDir) {
+        this.index = index;
+        this.cacheDir = cacheDir;
+    }
+
+    @Override
+    public Optional<ClassInfo> provide(String klass) {
+        String name = klass.replace('.', '/');
+        Optional<ClassInfo> info = this.classes.get(name);
+        if (info == null) {
+            // Read the class without holding a lock, another thread reading
+            // the same class at the same time yields the same result
+            try {
+                info = Optional.ofNullable(find(name));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to read class " + name, e);
+            }
+
+            Optional<ClassInfo> existing = this.classes.putIfAbsent(name, info);
+            if (existing != null) {
+                info = existing;
+            }
+        }
+        return info;
+    }
+
+    private ClassInfo find(String name) throws IOException {
+        Path entry = this.index.findEntry(name);
+        if (entry != null && this.cacheDir != null && Files.isRegularFile(entry)) {
+            Map<String, ClassFileInfo> classes = this.cachedArchives.get(entry);
+            if (classes == null) {
+                synchronized (this.archiveLocks.computeIfAbsent(entry, k -> new Object())) {
+                    classes = this.cachedArchives.get(entry);
+                    if (classes == null) {
+                        classes = loadArchive(entry);
+                        this.cachedArchives.put(entry, classes);
+                    }
+                }
+            }
+            return classes.get(name);
+        }
+
+        byte[] classFile = findClassFile(entry, name);
+        return classFile != null ? read(classFile) : null;
+    }
+
+    private byte[] findClassFile(Path entry, String name) throws IOException {
+        String fileName = name + CLASS_EXTENSION;
+        if (entry != null) {
+            byte[] classFile = readClassFile(entry, fileName);
+            if (classFile != null) {
+                return classFile;
+            }
+        }
+
+        if (JRT != null) {
+            return findModuleClassFile(name, fileName);
+        }
+
+        for (Path bootEntry : BOOT_CLASS_PATH) {
+            byte[] classFile = readClassFile(bootEntry, fileName);
+            if (classFile != null) {
+                return classFile;
+            }
+        }
+        return null;
+    }
+
+    private byte[] readClassFile(Path entry, String fileName) throws IOException {
+        if (Files.isDirectory(entry)) {
+            Path file = entry.resolve(fileName.replace("/", entry.getFileSystem().getSeparator()));
+            return Files.isRegularFile(file) ? Files.readAllBytes(file) : null;
+        }
+        if (!Files.isRegularFile(entry)) {
+            return null;
+        }
+
+        ZipFile archive = openArchive(entry);
+        ZipEntry zipEntry = archive.getEntry(fileName);
+        if (zipEntry == null) {
+            return null;
+        }
+        try (InputStream in = archive.getInputStream(zipEntry)) {
+            return readFully(in, zipEntry.getSize());
+        }
+    }
+
+    /**
+     * Finds a class in the modules of the running JVM. The {@code /packages}
+     * directory lists the modules containing each package.
+     */
+    private static byte[] findModuleClassFile(String name, String fileName) throws IOException {
+        int index = name.lastIndexOf('/');
+        if (index == -1) {
+            return null;
+        }
+
+        Path packageDir = JRT.getPath("/packages", name.substring(0, index).replace('/', '.'));
+        if (!Files.isDirectory(packageDir)) {
+            return null;
+        }
+
+        try (DirectoryStream<Path> modules = Files.newDirectoryStream(packageDir)) {
+            for (Path module : modules) {
+                Path file = JRT.getPath("/modules", module.getFileName().toString(), fileName);
+                if (Files.isRegularFile(file)) {
+                    return Files.readAllBytes(file);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static FileSystem getJrtFileSystem() {
+        try {
+            return FileSystems.getFileSystem(URI.create("jrt:/"));
+        } catch (FileSystemNotFoundException | ProviderNotFoundException e) {
+            // Before Java 9
+            return null;
+        }
+    }
+
+    private static List<Path> getBootClassPath() {
+        String bootClassPath = System.getProperty("sun.boot.class.path");
+        if (bootClassPath == null || bootClassPath.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<Path> entries = new ArrayList<>();
+        for (String entry : bootClassPath.split(File.pathSeparator)) {
+            entries.add(Paths.get(entry));
+        }
+        return entries;
+    }
+
+    /**
+     * Loads the classes of a JAR from the cache, or reads and stores them.
+     */
+    private Map<String, ClassFileInfo> loadArchive(Path entry) throws IOException {
+        Path cacheFile = this.cacheDir.resolve(ClasspathIndex.getFingerprint(entry) + ".bin");
+        Map<String, ClassFileInfo> classes = readCache(cacheFile);
+        if (classes == null) {
+            classes = new HashMap<>();
+            try (ZipFile archive = new ZipFile(entry.toFile())) {
+                Enumeration<? extends ZipEntry> entries = archive.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry zipEntry = entries.nextElement();
+                    String fileName = zipEntry.getName();
+                    if (!fileName.endsWith(CLASS_EXTENSION) || fileName.startsWith("META-INF/")
+                            || fileName.endsWith("module-info" + CLASS_EXTENSION)) {
+                        continue;
+                    }
+
+                    try (InputStream in = archive.getInputStream(zipEntry)) {
+                        ClassFileInfo info = read(readFully(in, zipEntry.getSize()));
+                        classes.put(info.getName(), info);
+                    }
+                }
+            }
+            writeCache(cacheFile, classes.values());
+        }
+        return classes;
+    }
+
+    private static Map<String, ClassFileInfo> readCache(Path cacheFile) {
+        if (!Files.isRegularFile(cacheFile)) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFile)))) {
+            if (in.readInt() != CACHE_MAGIC || in.readInt() != CACHE_VERSION) {
+                return null;
+            }
+
+            int count = in.readInt();
+            Map<String, ClassFileInfo> classes = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                ClassFileInfo info = ClassFileInfo.read(in);
+                classes.put(info.getName(), info);
+            }
+            return classes;
+        } catch (IOException ignored) {
+            // Read the classes again
+            return null;
+        }
+    }
+
+    private static void writeCache(Path cacheFile, Collection<ClassFileInfo> classes) throws IOException {
+        Files.createDirectories(cacheFile.getParent());
+
+        // Other processes might use the same cache directory concurrently
+        Path tempFile = Files.createTempFile(cacheFile.getParent(), cacheFile.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                out.writeInt(CACHE_MAGIC);
+                out.writeInt(CACHE_VERSION);
+                out.writeInt(classes.size());
+                for (ClassFileInfo info : classes) {
+                    info.write(out);
+                }
+            }
+            try {
+                Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private ZipFile openArchive(Path entry) throws IOException {
+        ZipFile archive = this.archives.get(entry);
+        if (archive == null) {
+            if (this.closed) {
+                throw new IOException("Provider is closed");
+            }
+
+            archive = new ZipFile(entry.toFile());
+            ZipFile existing = this.archives.putIfAbsent(entry, archive);
+            if (existing != null) {
+                archive.close();
+                archive = existing;
+            }
+        }
+        return archive;
+    }
+
+    private static byte[] readFully(InputStream in, long size) throws IOException {
+        byte[] buffer = new byte[size >= 0 ? (int) size : 4096];
+        int length = 0;
+        int read;
+        while ((read = in.read(buffer, length, buffer.length - length)) >= 0) {
+            length += read;
+            if (length == buffer.length) {
+                int next = in.read();
+                if (next < 0) {
+                    break;
+                }
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                buffer[length++] = (byte) next;
+            }
+        }
+        return length == buffer.length ? buffer : Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * Closes the archives opened to read class files.
+     */
+    @Override
+    public void close() throws IOException {
+        this.closed = true;
+        IOException exception = null;
+        for (ZipFile archive : this.archives.values()) {
+            try {
+                archive.close();
+            } catch (IOException e) {
+                exception = e;
+            }
+        }
+        this.archives.clear();
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    /**
+     * Reads the declarations of a class file. Only the constant pool entries
+     * referenced by the declarations are decoded.
+     */
+    private static ClassFileInfo read(byte[] classFile) throws IOException {
+        ClassFileReader reader = new ClassFileReader(classFile);
+        if (reader.readInt() != MAGIC) {
+            throw new IOException("Not a class file");
+        }
+        reader.skip(4); // Version
+
+        int count = reader.readUnsignedShort();
+        int[] offsets = new int[count];
+        for (int i = 1; i < count; i++) {
+            offsets[i] = reader.position;
+            int tag = reader.readUnsignedByte();
+            switch (tag) {
+                case CONSTANT_UTF8:
+                    reader.skip(reader.readUnsignedShort());
+                    break;
+                case CONSTANT_CLASS:
+                case CONSTANT_STRING:
+                case CONSTANT_METHOD_TYPE:
+                case CONSTANT_MODULE:
+                case CONSTANT_PACKAGE:
+                    reader.skip(2);
+                    break;
+                case CONSTANT_METHOD_HANDLE:
+                    reader.skip(3);
+                    break;
+                case CONSTANT_INTEGER:
+                case CONSTANT_FLOAT:
+                case CONSTANT_FIELDREF:
+                case CONSTANT_METHODREF:
+                case CONSTANT_INTERFACE_METHODREF:
+                case CONSTANT_NAME_AND_TYPE:
+                case CONSTANT_DYNAMIC:
+                case CONSTANT_INVOKE_DYNAMIC:
+                    reader.skip(4);
+                    break;
+                case CONSTANT_LONG:
+                case CONSTANT_DOUBLE:
+                    // These take up two entries
+                    reader.skip(8);
+                    i++;
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag " + tag);
+            }
+        }
+        reader.offsets = offsets;
+
+        int access = reader.readUnsignedShort();
+        String name = reader.readClass();
+        String superName = reader.readClass();
+
+        int interfaceCount = reader.readUnsignedShort();
+        List<String> interfaces = new ArrayList<>(interfaceCount);
+        for (int i = 0; i < interfaceCount; i++) {
+            interfaces.add(reader.readClass());
+        }
+
+        Member[] fields = readMembers(reader);
+        Member[] methods = readMembers(reader);
+        return new ClassFileInfo(name, access, superName != null ? superName : "", interfaces, fields, methods);
+    }
+
+    private static Member[] readMembers(ClassFileReader reader) throws IOException {
+        Member[] members = new Member[reader.readUnsignedShort()];
+        for (int i = 0; i < members.length; i++) {
+            int access = reader.readUnsignedShort();
+            members[i] = new Member(reader.readUtf8(), reader.readUtf8(), access);
+            reader.skipAttributes();
+        }
+        return members;
+    }
+
+    private static final class ClassFileReader {
+
+        private final byte[] data;
+        private int position;
+        private int[] offsets;
+
+        private ClassFileReader(byte[] data) {
+            this.data = data;
+        }
+
+        private void skip(int length) throws IOException {
+            if (this.position + length > this.data.length) {
+                throw new IOException("Truncated class file");
+            }
+            this.position += length;
+        }
+
+        private int readUnsignedByte() throws IOException {
+            if (this.position >= this.data.length) {
+                throw new IOException("Truncated class file");
+            }
+            return this.data[this.position++] & 0xFF;
+        }
+
+        private int readUnsignedShort() throws IOException {
+            int value = getUnsignedShort(this.position);
+            this.position += 2;
+            return value;
+        }
+
+        private int getUnsignedShort(int offset) throws IOException {
+            if (offset + 2 > this.data.length) {
+                throw new IOException("Truncated class file");
+            }
+            return (this.data[offset] & 0xFF) << 8 | this.data[offset + 1] & 0xFF;
+        }
+
+        private int readInt() throws IOException {
+            return readUnsignedShort() << 16 | readUnsignedShort();
+        }
+
+        private void skipAttributes() throws IOException {
+            int count = readUnsignedShort();
+            for (int i = 0; i < count; i++) {
+                skip(2);
+                skip(readInt());
+            }
+        }
+
+        /**
+         * Reads a reference to a class constant, which may be {@code 0}.
+         */
+        private String readClass() throws IOException {
+            int index = readUnsignedShort();
+            if (index == 0) {
+                return null;
+            }
+            return getUtf8(getUnsignedShort(getOffset(index, CONSTANT_CLASS) + 1));
+        }
+
+        private String readUtf8() throws IOException {
+            return getUtf8(readUnsignedShort());
+        }
+
+        private String getUtf8(int index) throws IOException {
+            // The offset of the length, followed by the bytes
+            int offset = getOffset(index, CONSTANT_UTF8) + 1;
+            int length = getUnsignedShort(offset);
+            int start = offset + 2;
+            if (start + length > this.data.length) {
+                throw new IOException("Truncated class file");
+            }
+            for (int i = start; i < start + length; i++) {
+                if (this.data[i] < 0) {
+                    // Class files use modified UTF-8, as written by DataOutput
+                    return new DataInputStream(new ByteArrayInputStream(this.data, offset, length + 2)).readUTF();
+                }
+            }
+            return new String(this.data, start, length, StandardCharsets.US_ASCII);
+        }
+
+        private int getOffset(int index, int tag) throws IOException {
+            if (index <= 0 || index >= this.offsets.length || this.offsets[index] == 0
+                    || (this.data[this.offsets[index]] & 0xFF) != tag) {
+                throw new IOException("Invalid constant pool index " + index);
+            }
+            return this.offsets[index];
+        }
+
+    }
+
+    /**
+     * A field or method, as declared in the class file.
+     */
+    private static final class Member {
+
+        private final String name;
+        private final String descriptor;
+        private final int access;
+
+        private Member(String name, String descriptor, int access) {
+            this.name = name;
+            this.descriptor = descriptor;
+            this.access = access;
+        }
+
+    }
+
+    private static final class ClassFileInfo extends ClassInfo.Abstract {
+
+        private final String name;
+        private final int access;
+        private final String superName;
+        private final List<String> interfaces;
+
+        /**
+         * The members as declared, kept to store the class in the cache.
+         */
+        private final Member[] declaredFields;
+        private final Member[] declaredMethods;
+
+        private final Map<FieldSignature, InheritanceType> fields;
+        private final Map<String, InheritanceType> fieldsByName;
+        private final Map<MethodSignature, InheritanceType> methods;
+
+        private ClassFileInfo(String name, int access, String superName, List<String> interfaces,
+                Member[] declaredFields, Member[] declaredMethods) {
+            this.name = name;
+            this.access = access;
+            this.superName = superName;
+            this.interfaces = Collections.unmodifiableList(interfaces);
+            this.declaredFields = declaredFields;
+            this.declaredMethods = declaredMethods;
+
+            Map<FieldSignature, InheritanceType> fields = new HashMap<>();
+            Map<String, InheritanceType> fieldsByName = new HashMap<>();
+            for (Member field : declaredFields) {
+                InheritanceType type = InheritanceType.fromModifiers(field.access);
+                fields.put(FieldSignature.of(field.name, field.descriptor), type);
+                fieldsByName.put(field.name, type);
+            }
+
+            Map<MethodSignature, InheritanceType> methods = new HashMap<>();
+            for (Member method : declaredMethods) {
+                methods.put(MethodSignature.of(method.name, method.descriptor), InheritanceType.fromModifiers(method.access));
+            }
+
+            this.fields = Collections.unmodifiableMap(fields);
+            this.fieldsByName = Collections.unmodifiableMap(fieldsByName);
+            this.methods = Collections.unmodifiableMap(methods);
+        }
+
+        private static ClassFileInfo read(DataInput in) throws IOException {
+            String name = in.readUTF();
+            int access = in.readUnsignedShort();
+            String superName = in.readUTF();
+
+            int interfaceCount = in.readInt();
+            List<String> interfaces = new ArrayList<>(interfaceCount);
+            for (int i = 0; i < interfaceCount; i++) {
+                interfaces.add(in.readUTF());
+            }
+
+            return new ClassFileInfo(name, access, superName, interfaces, readMembers(in), readMembers(in));
+        }
+
+        private static Member[] readMembers(DataInput in) throws IOException {
+            Member[] members = new Member[in.readInt()];
+            for (int i = 0; i < members.length; i++) {
+                members[i] = new Member(in.readUTF(), in.readUTF(), in.readUnsignedShort());
+            }
+            return members;
+        }
+
+        private void write(DataOutput out) throws IOException {
+            out.writeUTF(this.name);
+            out.writeShort(this.access);
+            out.writeUTF(this.superName);
+
+            out.writeInt(this.interfaces.size());
+            for (String iface : this.interfaces) {
+                out.writeUTF(iface);
+            }
+
+            writeMembers(out, this.declaredFields);
+            writeMembers(out, this.declaredMethods);
+        }
+
+        private static void writeMembers(DataOutput out, Member[] members) throws IOException {
+            out.writeInt(members.length);
+            for (Member member : members) {
+                out.writeUTF(member.name);
+                out.writeUTF(member.descriptor);
+                out.writeShort(member.access);
+            }
+        }
+
+        @Override
+        public String getName() {
+            return this.name;
+        }
+
+        @Override
+        public boolean isInterface() {
+            return (this.access & ACC_INTERFACE) != 0;
+        }
+
+        @Override
+        public String getSuperName() {
+            return this.superName;
+        }
+
+        @Override
+        public List<String> getInterfaces() {
+            return this.interfaces;
+        }
+
+        @Override
+        public Map<FieldSignature, InheritanceType> getFields() {
+            return this.fields;
+        }
+
+        @Override
+        public Map<String, InheritanceType> getFieldsByName() {
+            return this.fieldsByName;
+        }
+
+        @Override
+        public Map<MethodSignature, InheritanceType> getMethods() {
+            return this.methods;
+        }
+
+    }
+
+}
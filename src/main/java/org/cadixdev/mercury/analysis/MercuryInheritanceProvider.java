@@ -28,22 +28,50 @@
 import java.util.Optional;
 import java.util.stream.Collectors;
 
+/**
+ * An {@link InheritanceProvider} that uses the JDT bindings of the parser
+ * that is processing source files on the current thread. Types without a
+ * binding (e.g. when no parser is active on the current thread) are looked up
+ * in the class files of the class path instead, using the
+ * {@link ClassFileInheritanceProvider} of the Mercury instance. With a
+ * {@link Mercury#setClasspathCacheDir(java.nio.file.Path) class path cache
+ * directory}, those are loaded from the cache in later runs.
+ */
 public class MercuryInheritanceProvider implements InheritanceProvider {
 
     private final Mercury mercury;
 
     public static InheritanceProvider get(Mercury mercury) {
-        return (InheritanceProvider) mercury.getContext().computeIfAbsent(InheritanceProvider.class,
+        return (InheritanceProvider) mercury.getBindingContext().computeIfAbsent(InheritanceProvider.class,
                 i -> new CachingInheritanceProvider(new MercuryInheritanceProvider(mercury)));
     }
 
+    /**
+     * Looks up a set of classes (e.g. all super types on one level of a
+     * hierarchy) together, and adds them to the inheritance provider of the
+     * current parser. Subsequent queries for these classes are answered from
+     * its cache, without looking up the classes one by one.
+     *
+     * @param mercury The Mercury instance
+     * @param classes The internal names of the classes
+     */
+    public static void prefetch(Mercury mercury, Collection<String> classes) {
+        InheritanceProvider provider = get(mercury);
+        mercury.createTypeBindings(classes).forEach(provider::provide);
+    }
+
     private MercuryInheritanceProvider(Mercury mercury) {
         this.mercury = mercury;
     }
 
     @Override
     public Optional<ClassInfo> provide(String klass) {
-        return this.mercury.createTypeBinding(klass).map(this::provide);
+        Optional<ITypeBinding> binding = this.mercury.createTypeBinding(klass);
+        if (binding.isPresent()) {
+            return Optional.of(provide(binding.get()));
+        }
+
+        return ClassFileInheritanceProvider.get(this.mercury).provide(klass);
     }
 
     @Override
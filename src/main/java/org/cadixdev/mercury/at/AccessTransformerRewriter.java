@@ -38,7 +38,16 @@
 import org.eclipse.jdt.core.dom.rewrite.ListRewrite;
 
 import java.util.List;
+import java.util.Map;
 
+/**
+ * Applies the access transformers of an {@link AccessTransformSet}.
+ *
+ * <p>The transformers of a class are completed with the ones inherited by
+ * its methods while rewriting, so all access to the set is synchronized on
+ * it. The rewriter can therefore be used with several
+ * {@link org.cadixdev.mercury.Mercury#setThreads(int) threads}.</p>
+ */
 public final class AccessTransformerRewriter implements SourceRewriter {
 
     public static SourceRewriter create(AccessTransformSet ats) {
@@ -53,12 +62,60 @@ private AccessTransformerRewriter(AccessTransformSet ats) {
 
     @Override
     public int getFlags() {
-        return FLAG_RESOLVE_BINDINGS;
+        int flags = FLAG_RESOLVE_BINDINGS | FLAG_PARSE_PROFILE | FLAG_BINDINGS_RECOVERY;
+        return isDeclarationsOnly() ? flags | FLAG_DECLARATIONS_ONLY : flags;
+    }
+
+    /**
+     * Checks whether none of the access transformers can apply to local or
+     * anonymous classes, which are declared inside method bodies.
+     *
+     * <p>Method transformers are inherited by overriding methods, so they may
+     * apply to local or anonymous subclasses of the class they were set for.
+     * Whether such subclasses exist is only known once the method bodies are
+     * parsed, so any inheritable method transformer requires them. Constructors
+     * and static initializers are never inherited, so transformers for them
+     * (which make up a large part of typical access transformers) do not.</p>
+     */
+    private boolean isDeclarationsOnly() {
+        synchronized (this.ats) {
+            for (Map.Entry<String, AccessTransformSet.Class> entry : this.ats.getClasses().entrySet()) {
+                if (isLocalClass(entry.getKey())) {
+                    return false;
+                }
+
+                for (MethodSignature method : entry.getValue().getMethods().keySet()) {
+                    if (isInheritable(method)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean isInheritable(MethodSignature method) {
+        return !method.getName().equals("<init>") && !method.getName().equals("<clinit>");
+    }
+
+    private static boolean isLocalClass(String binaryName) {
+        // The names of local and anonymous classes start with a number
+        for (int index = binaryName.indexOf('$'); index != -1; index = binaryName.indexOf('$', index + 1)) {
+            if (index + 1 < binaryName.length() && Character.isDigit(binaryName.charAt(index + 1))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public ASTVisitor createRewriteVisitor(RewriteContext context) {
+        return new Visitor(context, this.ats);
     }
 
     @Override
     public void rewrite(RewriteContext context) {
-        context.getCompilationUnit().accept(new Visitor(context, this.ats));
+        context.getCompilationUnit().accept(createRewriteVisitor(context));
     }
 
     private static class Visitor extends ASTVisitor {
@@ -161,10 +218,12 @@ private void visitDeclaration(AbstractTypeDeclaration declaration) {
                 }
                 throw new IllegalStateException("No binding for type declaration " + declaration.getName() + " in class " + this.context.getQualifiedPrimaryType());
             }
-            AccessTransformSet.Class classSet = findClass(binding);
-            if (classSet != null) {
-                transform(declaration, classSet.get());
+            AccessTransform transform;
+            synchronized (this.ats) {
+                AccessTransformSet.Class classSet = findClass(binding);
+                transform = classSet != null ? classSet.get() : AccessTransform.EMPTY;
             }
+            transform(declaration, transform);
         }
 
         @Override
@@ -200,9 +259,11 @@ public boolean visit(FieldDeclaration node) {
                     throw new IllegalStateException("No binding for field node " + fragment.getName() + " in class " + this.context.getQualifiedPrimaryType());
                 }
 
-                AccessTransformSet.Class classSet = findClass(binding.getDeclaringClass());
-                if (classSet != null) {
-                    transform = transform.merge(classSet.getField(binding.getName()));
+                synchronized (this.ats) {
+                    AccessTransformSet.Class classSet = findClass(binding.getDeclaringClass());
+                    if (classSet != null) {
+                        transform = transform.merge(classSet.getField(binding.getName()));
+                    }
                 }
             }
 
@@ -225,11 +286,14 @@ public boolean visit(MethodDeclaration node) {
                 return true;
             }
 
-            AccessTransformSet.Class classSet = this.ats.getOrCreateClass(declaringClass.getBinaryName());
-            classSet.complete(this.inheritanceProvider, declaringClass);
-
             MethodSignature signature = convertSignature(binding);
-            transform(node, classSet.getMethod(signature));
+            AccessTransform transform;
+            synchronized (this.ats) {
+                AccessTransformSet.Class classSet = this.ats.getOrCreateClass(declaringClass.getBinaryName());
+                classSet.complete(this.inheritanceProvider, declaringClass);
+                transform = classSet.getMethod(signature);
+            }
+            transform(node, transform);
 
             return true;
         }
@@ -41,6 +41,13 @@
 /**
  * Generates access transformers for fields/method that would no longer be
  * accessible when moving classes to other packages.
+ *
+ * <p>Both the access transform set and the mapping set are changed while
+ * analyzing, so all access to them is synchronized on the respective set.
+ * The processor can therefore be used with several
+ * {@link org.cadixdev.mercury.Mercury#setThreads(int) threads}, but other
+ * code must not change the sets concurrently without synchronizing on them
+ * as well.</p>
  */
 public final class AccessAnalyzerProcessor implements SourceProcessor {
 
@@ -58,12 +65,17 @@ private AccessAnalyzerProcessor(AccessTransformSet ats, MappingSet mappings) {
 
     @Override
     public int getFlags() {
-        return FLAG_RESOLVE_BINDINGS;
+        return FLAG_RESOLVE_BINDINGS | FLAG_PARSE_PROFILE | FLAG_BINDINGS_RECOVERY;
+    }
+
+    @Override
+    public ASTVisitor createVisitor(SourceContext context) {
+        return new Visitor(context, this.ats, this.mappings);
     }
 
     @Override
     public void process(SourceContext context) {
-        context.getCompilationUnit().accept(new Visitor(context, this.ats, this.mappings));
+        context.getCompilationUnit().accept(createVisitor(context));
     }
 
     private static class Visitor extends ASTVisitor {
@@ -82,9 +94,11 @@ private Visitor(SourceContext context, AccessTransformSet ats, MappingSet mappin
             this.mappings = mappings;
             this.inheritanceProvider = MercuryInheritanceProvider.get(context.getMercury());
 
-            this.newPackage = this.mappings.getTopLevelClassMapping(context.getQualifiedPrimaryType())
-                    .map(primary -> primary.getDeobfuscatedPackage().replace('/', '.'))
-                    .orElse(context.getPackageName());
+            synchronized (this.mappings) {
+                this.newPackage = this.mappings.getTopLevelClassMapping(context.getQualifiedPrimaryType())
+                        .map(primary -> primary.getDeobfuscatedPackage().replace('/', '.'))
+                        .orElse(context.getPackageName());
+            }
         }
 
         private static ITypeBinding resolveBinding(ASTNode node) {
@@ -132,14 +146,15 @@ private boolean needsTransform(SimpleName node, IBinding binding, ITypeBinding d
                 throw new IllegalStateException("Binary name for binding " + declaringClass.getQualifiedName() + " is null. Did you forget to add a library to the classpath?");
             }
 
-            ClassMapping<?, ?> mapping = this.mappings.getClassMapping(binaryName).orElse(null);
-
             String packageName;
-            if (mapping != null) {
-                mapping.complete(this.inheritanceProvider, declaringClass);
-                packageName = mapping.getDeobfuscatedPackage().replace('/', '.');
-            } else {
-                packageName = declaringClass.getPackage().getName();
+            synchronized (this.mappings) {
+                ClassMapping<?, ?> mapping = this.mappings.getClassMapping(binaryName).orElse(null);
+                if (mapping != null) {
+                    mapping.complete(this.inheritanceProvider, declaringClass);
+                    packageName = mapping.getDeobfuscatedPackage().replace('/', '.');
+                } else {
+                    packageName = declaringClass.getPackage().getName();
+                }
             }
 
             return !packageName.equals(this.newPackage);
@@ -152,7 +167,9 @@ private void analyze(SimpleName node, ITypeBinding binding) {
                 return;
             }
             if (needsTransform(node, binding, binding)) {
-                this.ats.getOrCreateClass(binding.getBinaryName()).merge(TRANSFORM);
+                synchronized (this.ats) {
+                    this.ats.getOrCreateClass(binding.getBinaryName()).merge(TRANSFORM);
+                }
             }
         }
 
@@ -160,7 +177,9 @@ private void analyze(SimpleName node, IMethodBinding binding) {
             ITypeBinding declaringClass = binding.getDeclaringClass();
             if (needsTransform(node, binding, declaringClass)) {
                 MethodSignature signature = convertSignature(binding);
-                this.ats.getOrCreateClass(declaringClass.getBinaryName()).mergeMethod(signature, TRANSFORM);
+                synchronized (this.ats) {
+                    this.ats.getOrCreateClass(declaringClass.getBinaryName()).mergeMethod(signature, TRANSFORM);
+                }
             }
         }
 
@@ -171,13 +190,15 @@ private void analyze(SimpleName node, IVariableBinding binding) {
 
             ITypeBinding declaringClass = binding.getDeclaringClass();
             if (needsTransform(node, binding, declaringClass)) {
-                this.ats.getOrCreateClass(declaringClass.getBinaryName()).mergeField(binding.getName(), TRANSFORM);
+                synchronized (this.ats) {
+                    this.ats.getOrCreateClass(declaringClass.getBinaryName()).mergeField(binding.getName(), TRANSFORM);
+                }
             }
         }
 
         @Override
         public boolean visit(SimpleName node) {
-            IBinding binding = node.resolveBinding();
+            IBinding binding = this.context.resolveBinding(node);
             if (binding == null) {
                 return true;
             }
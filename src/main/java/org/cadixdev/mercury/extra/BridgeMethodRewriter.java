@@ -23,13 +23,10 @@
 import org.eclipse.jdt.core.dom.MethodDeclaration;
 import org.eclipse.jdt.core.dom.MethodInvocation;
 import org.eclipse.jdt.core.dom.ReturnStatement;
-import org.eclipse.jdt.core.dom.SimpleName;
 import org.eclipse.jdt.core.dom.Statement;
 import org.eclipse.jdt.core.dom.ThisExpression;
-import org.eclipse.jdt.core.dom.rewrite.ASTRewrite;
 
 import java.util.List;
-import java.util.Optional;
 
 /**
  * Removes redundant synthetic bridge methods that cause compile errors.
@@ -47,11 +44,19 @@ private BridgeMethodRewriter() {
 
     @Override
     public int getFlags() {
-        return FLAG_RESOLVE_BINDINGS;
+        return FLAG_RESOLVE_BINDINGS | FLAG_PARSE_PROFILE | FLAG_BINDINGS_RECOVERY;
+    }
+
+    @Override
+    public String getFingerprint() {
+        // There is nothing to configure
+        return "";
     }
 
     @Override
     public void rewrite(RewriteContext context) {
+        // Not combined with other visitors, since the renames of all methods
+        // in the compilation unit have to be known up front
         context.getCompilationUnit().accept(new Visitor(context));
     }
 
@@ -137,9 +142,8 @@ public boolean visit(MethodDeclaration node) {
                 return true;
             }
 
-            Optional<ASTRewrite> rewrite = this.context.getASTRewrite();
-            String name = getIdentifier(node.getName(), rewrite);
-            String otherName = getIdentifier(other.getName(), rewrite);
+            String name = this.context.getIdentifier(node.getName());
+            String otherName = this.context.getIdentifier(other.getName());
             if (!name.equals(otherName)) {
                 return true;
             }
@@ -164,11 +168,6 @@ public boolean visit(MethodDeclaration node) {
             return true;
         }
 
-        @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
-        private static String getIdentifier(SimpleName name, Optional<ASTRewrite> rewrite) {
-            return rewrite.map(r -> (String) r.get(name, SimpleName.IDENTIFIER_PROPERTY)).orElseGet(name::getIdentifier);
-        }
-
     }
 
 }
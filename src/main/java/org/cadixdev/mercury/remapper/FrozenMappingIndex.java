@@ -0,0 +1,464 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.remapper;
+
+import static org.cadixdev.mercury.util.BombeBindings.convertSignature;
+import static org.cadixdev.mercury.util.BombeBindings.isPackagePrivate;
+
+import org.cadixdev.bombe.analysis.InheritanceProvider;
+import org.cadixdev.bombe.type.signature.FieldSignature;
+import org.cadixdev.bombe.type.signature.MethodSignature;
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.lorenz.model.ClassMapping;
+import org.cadixdev.lorenz.model.FieldMapping;
+import org.cadixdev.lorenz.model.InnerClassMapping;
+import org.cadixdev.lorenz.model.MethodMapping;
+import org.cadixdev.lorenz.model.MethodParameterMapping;
+import org.cadixdev.lorenz.model.TopLevelClassMapping;
+import org.eclipse.jdt.core.dom.IMethodBinding;
+import org.eclipse.jdt.core.dom.ITypeBinding;
+import org.eclipse.jdt.core.dom.Modifier;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * An immutable {@link MappingIndex}, compiled from a {@link MappingSet}.
+ *
+ * <p>Unlike {@link MappingSet}, looking up classes that are not mapped
+ * explicitly does not create new mappings. Inherited method mappings are
+ * found by walking the super types of the class binding, instead of
+ * completing the mappings in place.</p>
+ *
+ * <p>Subclasses only have to provide the explicitly mapped classes, either
+ * from memory (see {@link #create(MappingSet)}) or from a
+ * {@link MappingSnapshot}.</p>
+ */
+abstract class FrozenMappingIndex implements MappingIndex {
+
+    static FrozenMappingIndex create(MappingSet mappings) {
+        return new Compiled(mappings);
+    }
+
+    /**
+     * Gets the explicitly mapped class with the given binary name.
+     *
+     * @param binaryName The binary name of the class
+     * @return The class mapping, or {@code null} if not mapped explicitly
+     */
+    abstract FrozenClass getMapping(String binaryName);
+
+    @Override
+    public ClassEntry getTopLevelClass(String binaryName) {
+        FrozenClass mapping = getMapping(binaryName);
+        return mapping != null && mapping.parent == null ? mapping : null;
+    }
+
+    @Override
+    public FrozenClass computeClass(String binaryName) {
+        FrozenClass mapping = getMapping(binaryName);
+        if (mapping != null) {
+            return mapping;
+        }
+
+        // Inner classes of mapped classes are moved with their outer class
+        int index = binaryName.lastIndexOf('$');
+        if (index == -1) {
+            return null;
+        }
+
+        FrozenClass parent = computeClass(binaryName.substring(0, index));
+        return parent != null ? parent.createInnerClass(binaryName.substring(index + 1)) : null;
+    }
+
+    @Override
+    public ClassEntry getClass(String binaryName) {
+        // Any class may inherit member mappings
+        return getOrCreateClass(binaryName);
+    }
+
+    @Override
+    public FrozenClass getOrCreateClass(String binaryName) {
+        FrozenClass mapping = computeClass(binaryName);
+        if (mapping != null) {
+            return mapping;
+        }
+
+        int index = binaryName.lastIndexOf('$');
+        if (index != -1) {
+            return getOrCreateClass(binaryName.substring(0, index)).createInnerClass(binaryName.substring(index + 1));
+        }
+
+        index = binaryName.lastIndexOf('.');
+        String simpleName = binaryName.substring(index + 1);
+        String packageName = index != -1 ? binaryName.substring(0, index) : "";
+        return new FrozenClass(this, null, binaryName, simpleName, binaryName, simpleName, packageName,
+                Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
+    }
+
+    /**
+     * Finds an inherited method mapping exactly like
+     * {@link ClassMapping#complete(InheritanceProvider, Object)}: the super
+     * types are visited in the order provided by
+     * {@link org.cadixdev.mercury.analysis.MercuryInheritanceProvider} (the
+     * super types of each parent before the parent itself, the super class
+     * before the interfaces), and the first one that declares the method
+     * visibly to the class and has a (possibly inherited) mapping for it wins.
+     */
+    private static FrozenMethod findInheritedMethod(FrozenMappingIndex index, ITypeBinding binding, MethodSignature signature) {
+        List<ITypeBinding> parents = new ArrayList<>();
+        collectParents(binding, parents);
+
+        String packageName = getPackageName(binding);
+        for (ITypeBinding parent : parents) {
+            if (canInherit(parent, signature, packageName)) {
+                FrozenMethod method = findMethod(index, parent, signature);
+                if (method != null) {
+                    return method;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static FrozenMethod findMethod(FrozenMappingIndex index, ITypeBinding binding, MethodSignature signature) {
+        String binaryName = binding.getBinaryName();
+        FrozenClass mapping = binaryName != null ? index.getMapping(binaryName) : null;
+        FrozenMethod method = mapping != null ? mapping.methods.get(signature) : null;
+        return method != null ? method : findInheritedMethod(index, binding, signature);
+    }
+
+    private static void collectParents(ITypeBinding binding, List<ITypeBinding> parents) {
+        collectParent(binding.getSuperclass(), parents);
+        for (ITypeBinding iface : binding.getInterfaces()) {
+            collectParent(iface, parents);
+        }
+    }
+
+    private static void collectParent(ITypeBinding parent, List<ITypeBinding> parents) {
+        if (parent != null) {
+            parent = parent.getErasure();
+            collectParents(parent, parents);
+            parents.add(parent);
+        }
+    }
+
+    private static boolean canInherit(ITypeBinding parent, MethodSignature signature, String packageName) {
+        for (IMethodBinding method : parent.getDeclaredMethods()) {
+            if (method.getName().equals(signature.getName()) && convertSignature(method).equals(signature)) {
+                int modifiers = method.getModifiers();
+                if (Modifier.isPrivate(modifiers)) {
+                    return false;
+                }
+                return !isPackagePrivate(modifiers) || getPackageName(parent).equals(packageName);
+            }
+        }
+        return false;
+    }
+
+    private static String getPackageName(ITypeBinding binding) {
+        return binding.getPackage() != null ? binding.getPackage().getName() : "";
+    }
+
+    static final class FrozenClass implements ClassEntry {
+
+        private final FrozenMappingIndex index;
+        private final FrozenClass parent;
+        private final String obfuscatedName;
+        private final String simpleObfuscatedName;
+        private final String deobfuscatedName;
+        private final String simpleDeobfuscatedName;
+        private final String deobfuscatedPackage;
+
+        /**
+         * The simple obfuscated names of the explicitly mapped inner classes.
+         */
+        private final Collection<String> innerClasses;
+        private final Map<FieldSignature, FrozenField> fields;
+        private final Map<String, FrozenField> fieldsByName;
+        private final Map<MethodSignature, FrozenMethod> methods;
+
+        FrozenClass(FrozenMappingIndex index, FrozenClass parent, String obfuscatedName, String simpleObfuscatedName,
+                String deobfuscatedName, String simpleDeobfuscatedName, String deobfuscatedPackage,
+                Collection<String> innerClasses, Collection<FrozenField> fields, Collection<FrozenMethod> methods) {
+            this.index = index;
+            this.parent = parent;
+            this.obfuscatedName = obfuscatedName;
+            this.simpleObfuscatedName = simpleObfuscatedName;
+            this.deobfuscatedName = deobfuscatedName;
+            this.simpleDeobfuscatedName = simpleDeobfuscatedName;
+            this.deobfuscatedPackage = deobfuscatedPackage;
+            this.innerClasses = innerClasses;
+
+            if (fields.isEmpty()) {
+                this.fields = Collections.emptyMap();
+                this.fieldsByName = Collections.emptyMap();
+            } else {
+                this.fields = new HashMap<>();
+                this.fieldsByName = new HashMap<>();
+                for (FrozenField field : fields) {
+                    this.fields.put(field.getSignature(), field);
+                    this.fieldsByName.putIfAbsent(field.obfuscatedName, field);
+                }
+            }
+
+            if (methods.isEmpty()) {
+                this.methods = Collections.emptyMap();
+            } else {
+                this.methods = new HashMap<>();
+                for (FrozenMethod method : methods) {
+                    this.methods.put(method.signature, method);
+                }
+            }
+        }
+
+        private FrozenClass createInnerClass(String simpleName) {
+            FrozenClass mapping = getInnerClass(simpleName);
+            if (mapping != null) {
+                return mapping;
+            }
+
+            return new FrozenClass(this.index, this, this.obfuscatedName + '$' + simpleName, simpleName,
+                    this.deobfuscatedName + '$' + simpleName, simpleName, this.deobfuscatedPackage,
+                    Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
+        }
+
+        @Override
+        public String getObfuscatedName() {
+            return this.obfuscatedName;
+        }
+
+        @Override
+        public String getSimpleObfuscatedName() {
+            return this.simpleObfuscatedName;
+        }
+
+        @Override
+        public String getFullDeobfuscatedName() {
+            return this.deobfuscatedName;
+        }
+
+        @Override
+        public String getSimpleDeobfuscatedName() {
+            return this.simpleDeobfuscatedName;
+        }
+
+        @Override
+        public String getDeobfuscatedPackage() {
+            return this.deobfuscatedPackage;
+        }
+
+        @Override
+        public ClassEntry getParent() {
+            return this.parent;
+        }
+
+        @Override
+        public FrozenClass getInnerClass(String simpleObfuscatedName) {
+            return this.innerClasses.contains(simpleObfuscatedName) ? this.index.getMapping(this.obfuscatedName + '$' + simpleObfuscatedName) : null;
+        }
+
+        @Override
+        public Collection<? extends ClassEntry> getInnerClasses() {
+            List<FrozenClass> result = new ArrayList<>(this.innerClasses.size());
+            for (String name : this.innerClasses) {
+                result.add(this.index.getMapping(this.obfuscatedName + '$' + name));
+            }
+            return result;
+        }
+
+        @Override
+        public Collection<? extends FieldEntry> getFields() {
+            return Collections.unmodifiableCollection(this.fields.values());
+        }
+
+        @Override
+        public FieldEntry getField(FieldSignature signature) {
+            FrozenField field = this.fields.get(signature);
+            if (field != null) {
+                return field;
+            }
+
+            if (signature.getType().isPresent()) {
+                // Fall back to a mapping without type
+                field = this.fieldsByName.get(signature.getName());
+                return field != null && field.type == null ? field : null;
+            }
+            return this.fieldsByName.get(signature.getName());
+        }
+
+        @Override
+        public Collection<? extends MethodEntry> getMethods() {
+            return Collections.unmodifiableCollection(this.methods.values());
+        }
+
+        @Override
+        public MethodEntry getMethod(MethodSignature signature) {
+            return this.methods.get(signature);
+        }
+
+        @Override
+        public MethodEntry completeMethod(MethodSignature signature, ITypeBinding binding, InheritanceProvider inheritanceProvider) {
+            MethodEntry method = this.methods.get(signature);
+            if (method != null) {
+                return method;
+            }
+
+            return findInheritedMethod(this.index, binding.getErasure(), signature);
+        }
+
+    }
+
+    static final class FrozenField implements FieldEntry {
+
+        private final String obfuscatedName;
+        private final String type;
+        private final String deobfuscatedName;
+
+        FrozenField(String obfuscatedName, String type, String deobfuscatedName) {
+            this.obfuscatedName = obfuscatedName;
+            this.type = type;
+            this.deobfuscatedName = deobfuscatedName;
+        }
+
+        private FieldSignature getSignature() {
+            return this.type != null ? FieldSignature.of(this.obfuscatedName, this.type) : new FieldSignature(this.obfuscatedName);
+        }
+
+        @Override
+        public String getObfuscatedName() {
+            return this.obfuscatedName;
+        }
+
+        @Override
+        public String getType() {
+            return this.type;
+        }
+
+        @Override
+        public String getDeobfuscatedName() {
+            return this.deobfuscatedName;
+        }
+
+    }
+
+    static final class FrozenMethod implements MethodEntry {
+
+        private final MethodSignature signature;
+        private final String deobfuscatedName;
+        private final Map<Integer, String> parameters;
+
+        FrozenMethod(MethodSignature signature, String deobfuscatedName, Map<Integer, String> parameters) {
+            this.signature = signature;
+            this.deobfuscatedName = deobfuscatedName;
+            this.parameters = parameters.isEmpty() ? Collections.emptyMap() : Collections.unmodifiableMap(parameters);
+        }
+
+        @Override
+        public MethodSignature getSignature() {
+            return this.signature;
+        }
+
+        @Override
+        public String getDeobfuscatedName() {
+            return this.deobfuscatedName;
+        }
+
+        @Override
+        public boolean hasParameters() {
+            return !this.parameters.isEmpty();
+        }
+
+        @Override
+        public String getParameterName(int index) {
+            return this.parameters.get(index);
+        }
+
+        @Override
+        public Map<Integer, String> getParameterNames() {
+            return this.parameters;
+        }
+
+    }
+
+    /**
+     * A frozen index holding all of the class mappings in memory.
+     */
+    private static final class Compiled extends FrozenMappingIndex {
+
+        /**
+         * All explicitly mapped classes, indexed by binary name.
+         */
+        private final Map<String, FrozenClass> classes = new HashMap<>();
+        private final List<FrozenClass> topLevelClasses = new ArrayList<>();
+
+        private Compiled(MappingSet mappings) {
+            for (TopLevelClassMapping mapping : mappings.getTopLevelClassMappings()) {
+                this.topLevelClasses.add(compile(mapping, null));
+            }
+        }
+
+        private FrozenClass compile(ClassMapping<?, ?> mapping, FrozenClass parent) {
+            List<FrozenField> fields = new ArrayList<>();
+            for (FieldMapping field : mapping.getFieldMappings()) {
+                fields.add(new FrozenField(field.getObfuscatedName(),
+                        field.getSignature().getType().map(Object::toString).orElse(null), field.getDeobfuscatedName()));
+            }
+
+            List<FrozenMethod> methods = new ArrayList<>();
+            for (MethodMapping method : mapping.getMethodMappings()) {
+                Map<Integer, String> parameters = new TreeMap<>();
+                for (MethodParameterMapping parameter : method.getParameterMappings()) {
+                    parameters.put(parameter.getIndex(), parameter.getDeobfuscatedName());
+                }
+                methods.add(new FrozenMethod(method.getSignature(), method.getDeobfuscatedName(), parameters));
+            }
+
+            Set<String> innerClasses = new HashSet<>();
+            for (InnerClassMapping inner : mapping.getInnerClassMappings()) {
+                innerClasses.add(inner.getSimpleObfuscatedName());
+            }
+
+            FrozenClass result = new FrozenClass(this, parent,
+                    mapping.getFullObfuscatedName().replace('/', '.'),
+                    mapping.getSimpleObfuscatedName(),
+                    mapping.getFullDeobfuscatedName().replace('/', '.'),
+                    mapping.getSimpleDeobfuscatedName(),
+                    mapping.getDeobfuscatedPackage().replace('/', '.'),
+                    innerClasses, fields, methods);
+            this.classes.put(result.obfuscatedName, result);
+
+            for (InnerClassMapping inner : mapping.getInnerClassMappings()) {
+                compile(inner, result);
+            }
+            return result;
+        }
+
+        @Override
+        FrozenClass getMapping(String binaryName) {
+            return this.classes.get(binaryName);
+        }
+
+        @Override
+        public Collection<? extends ClassEntry> getTopLevelClasses() {
+            return Collections.unmodifiableList(this.topLevelClasses);
+        }
+
+    }
+
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.remapper;
+
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides which simple names may refer to a mapped class or member, so the
+ * remapper visitors only resolve the bindings of those.
+ */
+final class IdentifierGate {
+
+    /**
+     * The obfuscated simple names of all classes and members in the mappings.
+     */
+    private final Set<String> identifiers;
+
+    private final LongAdder visitedNames = new LongAdder();
+    private final LongAdder resolvedNames = new LongAdder();
+
+    IdentifierGate(Set<String> identifiers) {
+        this.identifiers = identifiers;
+    }
+
+    boolean contains(String identifier) {
+        return this.identifiers.contains(identifier);
+    }
+
+    void count(boolean resolved) {
+        this.visitedNames.increment();
+        if (resolved) {
+            this.resolvedNames.increment();
+        }
+    }
+
+    long getVisitedNames() {
+        return this.visitedNames.sum();
+    }
+
+    long getResolvedNames() {
+        return this.resolvedNames.sum();
+    }
+
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.remapper;
+
+import org.cadixdev.bombe.analysis.InheritanceProvider;
+import org.cadixdev.bombe.type.signature.FieldSignature;
+import org.cadixdev.bombe.type.signature.MethodSignature;
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.lorenz.model.ClassMapping;
+import org.cadixdev.lorenz.model.FieldMapping;
+import org.cadixdev.lorenz.model.InnerClassMapping;
+import org.cadixdev.lorenz.model.MethodMapping;
+import org.cadixdev.lorenz.model.MethodParameterMapping;
+import org.eclipse.jdt.core.dom.ITypeBinding;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * A {@link MappingIndex} backed directly by a {@link MappingSet}.
+ *
+ * <p>Lorenz creates mappings lazily (e.g. when completing the inherited
+ * members of a class), so all access to the mapping set is serialized by
+ * synchronizing on it. Other code changing the same mapping set concurrently
+ * must synchronize on it as well.</p>
+ */
+final class LorenzMappingIndex implements MappingIndex {
+
+    private final MappingSet mappings;
+
+    LorenzMappingIndex(MappingSet mappings) {
+        this.mappings = Objects.requireNonNull(mappings, "mappings");
+    }
+
+    @Override
+    public Collection<? extends ClassEntry> getTopLevelClasses() {
+        synchronized (this.mappings) {
+            return this.mappings.getTopLevelClassMappings().stream()
+                    .map(this::wrap)
+                    .collect(Collectors.toList());
+        }
+    }
+
+    @Override
+    public ClassEntry getTopLevelClass(String binaryName) {
+        synchronized (this.mappings) {
+            return wrap(this.mappings.getTopLevelClassMapping(binaryName).orElse(null));
+        }
+    }
+
+    @Override
+    public ClassEntry computeClass(String binaryName) {
+        synchronized (this.mappings) {
+            return wrap(this.mappings.computeClassMapping(binaryName).orElse(null));
+        }
+    }
+
+    @Override
+    public ClassEntry getClass(String binaryName) {
+        synchronized (this.mappings) {
+            return wrap(this.mappings.getClassMapping(binaryName).orElse(null));
+        }
+    }
+
+    @Override
+    public ClassEntry getOrCreateClass(String binaryName) {
+        synchronized (this.mappings) {
+            return wrap(this.mappings.getOrCreateClassMapping(binaryName));
+        }
+    }
+
+    /**
+     * Compiles the mappings into an immutable index, see
+     * {@link MappingIndex#freeze(MappingSet)}.
+     *
+     * @return The frozen index
+     */
+    MappingIndex freeze() {
+        synchronized (this.mappings) {
+            return FrozenMappingIndex.create(this.mappings);
+        }
+    }
+
+    private ClassEntry wrap(ClassMapping<?, ?> mapping) {
+        return mapping != null ? new LorenzClass(mapping) : null;
+    }
+
+    private final class LorenzClass implements ClassEntry {
+
+        private final ClassMapping<?, ?> mapping;
+
+        private LorenzClass(ClassMapping<?, ?> mapping) {
+            this.mapping = mapping;
+        }
+
+        @Override
+        public String getObfuscatedName() {
+            return this.mapping.getFullObfuscatedName().replace('/', '.');
+        }
+
+        @Override
+        public String getSimpleObfuscatedName() {
+            return this.mapping.getSimpleObfuscatedName();
+        }
+
+        @Override
+        public String getFullDeobfuscatedName() {
+            return this.mapping.getFullDeobfuscatedName().replace('/', '.');
+        }
+
+        @Override
+        public String getSimpleDeobfuscatedName() {
+            return this.mapping.getSimpleDeobfuscatedName();
+        }
+
+        @Override
+        public String getDeobfuscatedPackage() {
+            return this.mapping.getDeobfuscatedPackage().replace('/', '.');
+        }
+
+        @Override
+        public ClassEntry getParent() {
+            return this.mapping instanceof InnerClassMapping ? wrap(((InnerClassMapping) this.mapping).getParent()) : null;
+        }
+
+        @Override
+        public ClassEntry getInnerClass(String simpleObfuscatedName) {
+            synchronized (LorenzMappingIndex.this.mappings) {
+                return wrap(this.mapping.getInnerClassMapping(simpleObfuscatedName).orElse(null));
+            }
+        }
+
+        @Override
+        public Collection<? extends ClassEntry> getInnerClasses() {
+            synchronized (LorenzMappingIndex.this.mappings) {
+                return this.mapping.getInnerClassMappings().stream()
+                        .map(LorenzMappingIndex.this::wrap)
+                        .collect(Collectors.toList());
+            }
+        }
+
+        @Override
+        public Collection<? extends FieldEntry> getFields() {
+            synchronized (LorenzMappingIndex.this.mappings) {
+                return this.mapping.getFieldMappings().stream()
+                        .map(LorenzField::new)
+                        .collect(Collectors.toList());
+            }
+        }
+
+        @Override
+        public FieldEntry getField(FieldSignature signature) {
+            synchronized (LorenzMappingIndex.this.mappings) {
+                return this.mapping.computeFieldMapping(signature).map(LorenzField::new).orElse(null);
+            }
+        }
+
+        @Override
+        public Collection<? extends MethodEntry> getMethods() {
+            synchronized (LorenzMappingIndex.this.mappings) {
+                return this.mapping.getMethodMappings().stream()
+                        .map(LorenzMethod::new)
+                        .collect(Collectors.toList());
+            }
+        }
+
+        @Override
+        public MethodEntry getMethod(MethodSignature signature) {
+            synchronized (LorenzMappingIndex.this.mappings) {
+                return this.mapping.getMethodMapping(signature).map(LorenzMethod::new).orElse(null);
+            }
+        }
+
+        @Override
+        public MethodEntry completeMethod(MethodSignature signature, ITypeBinding binding, InheritanceProvider inheritanceProvider) {
+            synchronized (LorenzMappingIndex.this.mappings) {
+                this.mapping.complete(inheritanceProvider, binding);
+                return getMethod(signature);
+            }
+        }
+
+    }
+
+    private final class LorenzField implements FieldEntry {
+
+        private final FieldMapping mapping;
+
+        private LorenzField(FieldMapping mapping) {
+            this.mapping = mapping;
+        }
+
+        @Override
+        public String getObfuscatedName() {
+            return this.mapping.getObfuscatedName();
+        }
+
+        @Override
+        public String getType() {
+            return this.mapping.getSignature().getType().map(Object::toString).orElse(null);
+        }
+
+        @Override
+        public String getDeobfuscatedName() {
+            return this.mapping.getDeobfuscatedName();
+        }
+
+    }
+
+    private final class LorenzMethod implements MethodEntry {
+
+        private final MethodMapping mapping;
+
+        private LorenzMethod(MethodMapping mapping) {
+            this.mapping = mapping;
+        }
+
+        @Override
+        public MethodSignature getSignature() {
+            return this.mapping.getSignature();
+        }
+
+        @Override
+        public String getDeobfuscatedName() {
+            return this.mapping.getDeobfuscatedName();
+        }
+
+        @Override
+        public boolean hasParameters() {
+            synchronized (LorenzMappingIndex.this.mappings) {
+                return !this.mapping.getParameterMappings().isEmpty();
+            }
+        }
+
+        @Override
+        public String getParameterName(int index) {
+            synchronized (LorenzMappingIndex.this.mappings) {
+                return this.mapping.getParameterMapping(index).map(MethodParameterMapping::getDeobfuscatedName).orElse(null);
+            }
+        }
+
+        @Override
+        public Map<Integer, String> getParameterNames() {
+            Map<Integer, String> names = new TreeMap<>();
+            synchronized (LorenzMappingIndex.this.mappings) {
+                for (MethodParameterMapping parameter : this.mapping.getParameterMappings()) {
+                    names.put(parameter.getIndex(), parameter.getDeobfuscatedName());
+                }
+            }
+            return Collections.unmodifiableMap(names);
+        }
+
+    }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.remapper;
+
+import org.cadixdev.mercury.remapper.MappingIndex.ClassEntry;
+import org.cadixdev.mercury.remapper.MappingIndex.FieldEntry;
+import org.cadixdev.mercury.remapper.MappingIndex.MethodEntry;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Computes the keys (see {@link ReferenceIndex}) of all mappings that differ
+ * between two mapping sets.
+ */
+final class MappingDelta {
+
+    static Set<String> compute(MappingIndex previous, MappingIndex mappings) {
+        Map<String, Set<String>> before = collect(previous);
+        Map<String, Set<String>> after = collect(mappings);
+
+        Set<String> delta = new HashSet<>();
+        for (Map.Entry<String, Set<String>> entry : before.entrySet()) {
+            if (!Objects.equals(entry.getValue(), after.get(entry.getKey()))) {
+                delta.add(entry.getKey());
+            }
+        }
+        for (String key : after.keySet()) {
+            if (!before.containsKey(key)) {
+                delta.add(key);
+            }
+        }
+        return delta;
+    }
+
+    private static Map<String, Set<String>> collect(MappingIndex mappings) {
+        Map<String, Set<String>> result = new HashMap<>();
+        for (ClassEntry mapping : mappings.getTopLevelClasses()) {
+            collect(mapping, result);
+        }
+        return result;
+    }
+
+    private static void collect(ClassEntry mapping, Map<String, Set<String>> result) {
+        String owner = mapping.getObfuscatedName();
+        put(result, ReferenceIndex.classKey(owner), mapping.getFullDeobfuscatedName());
+
+        for (FieldEntry field : mapping.getFields()) {
+            put(result, ReferenceIndex.fieldKey(field.getObfuscatedName()), owner + ':'
+                    + (field.getType() != null ? field.getType() : "") + ':' + field.getDeobfuscatedName());
+        }
+
+        for (MethodEntry method : mapping.getMethods()) {
+            put(result, ReferenceIndex.methodKey(method.getSignature()), owner + ':' + method.getDeobfuscatedName());
+            for (Map.Entry<Integer, String> parameter : method.getParameterNames().entrySet()) {
+                put(result, ReferenceIndex.parameterKey(method.getSignature()),
+                        owner + ':' + parameter.getKey() + ':' + parameter.getValue());
+            }
+        }
+
+        for (ClassEntry inner : mapping.getInnerClasses()) {
+            collect(inner, result);
+        }
+    }
+
+    private static void put(Map<String, Set<String>> result, String key, String value) {
+        result.computeIfAbsent(key, k -> new HashSet<>()).add(value);
+    }
+
+    private MappingDelta() {
+    }
+
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.remapper;
+
+import org.cadixdev.bombe.analysis.InheritanceProvider;
+import org.cadixdev.bombe.type.signature.FieldSignature;
+import org.cadixdev.bombe.type.signature.MethodSignature;
+import org.cadixdev.lorenz.MappingSet;
+import org.eclipse.jdt.core.dom.ITypeBinding;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The view of the mappings used by {@link MercuryRemapper}. All class names
+ * are binary names with {@code .} as package separator (e.g.
+ * {@code com.example.Outer$Inner}), as returned by
+ * {@link ITypeBinding#getBinaryName()}.
+ *
+ * <p>The index is either backed directly by a (mutable) {@link MappingSet}
+ * (see {@link #of(MappingSet)}), or compiled into an immutable index that is
+ * faster to query and safe to share across threads and rewrites (see
+ * {@link #freeze(MappingSet)}).</p>
+ */
+public interface MappingIndex {
+
+    /**
+     * Creates an index backed by the given mappings. Lookups complete the
+     * mappings on the fly, so the mappings are modified during the rewrite.
+     * Access to the mappings is synchronized on them, but when rewriting with
+     * several {@link org.cadixdev.mercury.Mercury#setThreads(int) threads},
+     * {@link MercuryRemapper} uses a {@link #freeze(MappingSet) frozen} copy
+     * of them instead, which is not completed on the fly.
+     *
+     * @param mappings The mappings
+     * @return The index
+     */
+    static MappingIndex of(MappingSet mappings) {
+        return new LorenzMappingIndex(mappings);
+    }
+
+    /**
+     * Compiles the given mappings into an immutable index. Later changes to
+     * the mappings are not reflected in the index.
+     *
+     * @param mappings The mappings
+     * @return The frozen index
+     */
+    static MappingIndex freeze(MappingSet mappings) {
+        return FrozenMappingIndex.create(mappings);
+    }
+
+    Collection<? extends ClassEntry> getTopLevelClasses();
+
+    /**
+     * Gets the mapping of a top-level class.
+     *
+     * @param binaryName The binary name of the class
+     * @return The class mapping, or {@code null} if none
+     */
+    ClassEntry getTopLevelClass(String binaryName);
+
+    /**
+     * Gets the mapping of a class, including inner classes that are not
+     * mapped explicitly, but whose outer class is mapped.
+     *
+     * @param binaryName The binary name of the class
+     * @return The class mapping, or {@code null} if none
+     */
+    ClassEntry computeClass(String binaryName);
+
+    /**
+     * Gets the mapping of a class to look up the mappings of its members.
+     *
+     * @param binaryName The binary name of the class
+     * @return The class mapping, or {@code null} if it has no member mappings
+     *     (including inherited ones)
+     */
+    ClassEntry getClass(String binaryName);
+
+    /**
+     * Gets the mapping of a class, or an identity mapping if it is not mapped.
+     *
+     * @param binaryName The binary name of the class
+     * @return The class mapping
+     */
+    ClassEntry getOrCreateClass(String binaryName);
+
+    /**
+     * Gets the obfuscated simple names of all classes and members. Names
+     * not contained in them cannot refer to any of the mappings.
+     *
+     * @return The obfuscated names
+     */
+    default Set<String> getObfuscatedNames() {
+        Set<String> names = new HashSet<>();
+        Deque<ClassEntry> classes = new ArrayDeque<>(getTopLevelClasses());
+        while (!classes.isEmpty()) {
+            ClassEntry mapping = classes.pop();
+            names.add(mapping.getSimpleObfuscatedName());
+            for (FieldEntry field : mapping.getFields()) {
+                names.add(field.getObfuscatedName());
+            }
+            for (MethodEntry method : mapping.getMethods()) {
+                names.add(method.getSignature().getName());
+            }
+            classes.addAll(mapping.getInnerClasses());
+        }
+        return names;
+    }
+
+    interface ClassEntry {
+
+        /**
+         * Gets the binary name of the class.
+         *
+         * @return The obfuscated binary name
+         */
+        String getObfuscatedName();
+
+        String getSimpleObfuscatedName();
+
+        /**
+         * Gets the deobfuscated binary name of the class.
+         *
+         * @return The deobfuscated binary name
+         */
+        String getFullDeobfuscatedName();
+
+        String getSimpleDeobfuscatedName();
+
+        /**
+         * Gets the deobfuscated package of the class, with {@code .} as
+         * separator.
+         *
+         * @return The deobfuscated package, or an empty string for the default
+         *     package
+         */
+        String getDeobfuscatedPackage();
+
+        /**
+         * Gets the mapping of the outer class.
+         *
+         * @return The outer class mapping, or {@code null} for top-level classes
+         */
+        ClassEntry getParent();
+
+        ClassEntry getInnerClass(String simpleObfuscatedName);
+
+        Collection<? extends ClassEntry> getInnerClasses();
+
+        Collection<? extends FieldEntry> getFields();
+
+        /**
+         * Gets the mapping of a field. If the signature has a type, but there
+         * is no mapping for it, the mapping of a field with the same name and
+         * no type is returned.
+         *
+         * @param signature The signature of the field
+         * @return The field mapping, or {@code null} if none
+         */
+        FieldEntry getField(FieldSignature signature);
+
+        Collection<? extends MethodEntry> getMethods();
+
+        MethodEntry getMethod(MethodSignature signature);
+
+        /**
+         * Finds the mapping of a method inherited from one of the super types
+         * of this class, if it is not mapped for this class explicitly.
+         *
+         * @param signature The signature of the method
+         * @param binding The binding of this class
+         * @param inheritanceProvider The inheritance provider for the rewrite
+         * @return The method mapping, or {@code null} if none
+         */
+        MethodEntry completeMethod(MethodSignature signature, ITypeBinding binding, InheritanceProvider inheritanceProvider);
+
+    }
+
+    interface FieldEntry {
+
+        String getObfuscatedName();
+
+        /**
+         * Gets the type descriptor of the field.
+         *
+         * @return The type descriptor, or {@code null} if unknown
+         */
+        String getType();
+
+        String getDeobfuscatedName();
+
+    }
+
+    interface MethodEntry {
+
+        MethodSignature getSignature();
+
+        String getDeobfuscatedName();
+
+        boolean hasParameters();
+
+        /**
+         * Gets the deobfuscated name of a parameter.
+         *
+         * @param index The index of the parameter
+         * @return The deobfuscated name, or {@code null} if not mapped
+         */
+        String getParameterName(int index);
+
+        /**
+         * Gets the deobfuscated names of all mapped parameters.
+         *
+         * @return The parameter names, sorted by index
+         */
+        Map<Integer, String> getParameterNames();
+
+    }
+
+}
@@ -0,0 +1,394 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.remapper;
+
+import org.cadixdev.bombe.type.signature.MethodSignature;
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.lorenz.model.ClassMapping;
+import org.cadixdev.lorenz.model.FieldMapping;
+import org.cadixdev.lorenz.model.InnerClassMapping;
+import org.cadixdev.lorenz.model.MethodMapping;
+import org.cadixdev.lorenz.model.MethodParameterMapping;
+import org.cadixdev.lorenz.model.TopLevelClassMapping;
+import org.cadixdev.mercury.remapper.FrozenMappingIndex.FrozenClass;
+import org.cadixdev.mercury.remapper.FrozenMappingIndex.FrozenField;
+import org.cadixdev.mercury.remapper.FrozenMappingIndex.FrozenMethod;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * A compact binary snapshot of a {@link MappingSet}, which can be opened as
+ * {@link MappingIndex} without parsing the original mappings again.
+ *
+ * <p>The snapshot is memory-mapped when opened, and the mappings of a class
+ * are only read once the class is looked up. All names are stored once in a
+ * string table and referenced by index, and the classes are sorted by their
+ * obfuscated name so they can be found with a binary search. The obfuscated
+ * simple names of all classes and members are stored in a separate table,
+ * so {@link MappingIndex#getObfuscatedNames()} does not read any class.</p>
+ *
+ * <p>The returned index behaves like {@link MappingIndex#freeze(MappingSet)},
+ * so it is immutable and safe to share across threads.</p>
+ */
+public final class MappingSnapshot {
+
+    private static final int MAGIC = 0x4D524353; // MRCS
+    private static final int VERSION = 2;
+
+    /**
+     * The size of the header: magic, version and the number of strings.
+     */
+    private static final int HEADER_SIZE = 12;
+
+    /**
+     * The size of a class record: obfuscated name, simple obfuscated name,
+     * deobfuscated name, simple deobfuscated name, deobfuscated package,
+     * parent class and offset of the member mappings.
+     */
+    private static final int CLASS_SIZE = 7 * Integer.BYTES;
+
+    /**
+     * Writes a snapshot of the given mappings.
+     *
+     * @param mappings The mappings
+     * @param file The snapshot file to write
+     * @throws IOException If an I/O error occurs
+     */
+    public static void write(MappingSet mappings, Path file) throws IOException {
+        List<ClassMapping<?, ?>> classes = new ArrayList<>();
+        for (TopLevelClassMapping mapping : mappings.getTopLevelClassMappings()) {
+            collectClasses(mapping, classes);
+        }
+        classes.sort(Comparator.comparing(MappingSnapshot::getObfuscatedName));
+
+        Map<String, Integer> classIndices = new HashMap<>();
+        for (int i = 0; i < classes.size(); i++) {
+            classIndices.put(getObfuscatedName(classes.get(i)), i);
+        }
+
+        StringTable strings = new StringTable();
+        Set<Integer> names = new TreeSet<>();
+        ByteArrayOutputStream classTable = new ByteArrayOutputStream(classes.size() * CLASS_SIZE);
+        ByteArrayOutputStream memberTable = new ByteArrayOutputStream();
+        DataOutputStream classOut = new DataOutputStream(classTable);
+        DataOutputStream memberOut = new DataOutputStream(memberTable);
+
+        for (ClassMapping<?, ?> mapping : classes) {
+            classOut.writeInt(strings.get(getObfuscatedName(mapping)));
+            classOut.writeInt(strings.get(mapping.getSimpleObfuscatedName()));
+            names.add(strings.get(mapping.getSimpleObfuscatedName()));
+            classOut.writeInt(strings.get(mapping.getFullDeobfuscatedName().replace('/', '.')));
+            classOut.writeInt(strings.get(mapping.getSimpleDeobfuscatedName()));
+            classOut.writeInt(strings.get(mapping.getDeobfuscatedPackage().replace('/', '.')));
+            classOut.writeInt(mapping instanceof InnerClassMapping ?
+                    classIndices.get(getObfuscatedName(((InnerClassMapping) mapping).getParent())) : -1);
+            classOut.writeInt(memberOut.size());
+
+            Collection<InnerClassMapping> innerClasses = mapping.getInnerClassMappings();
+            memberOut.writeInt(innerClasses.size());
+            for (InnerClassMapping inner : innerClasses) {
+                memberOut.writeInt(strings.get(inner.getSimpleObfuscatedName()));
+            }
+
+            Collection<FieldMapping> fields = mapping.getFieldMappings();
+            memberOut.writeInt(fields.size());
+            for (FieldMapping field : fields) {
+                memberOut.writeInt(strings.get(field.getObfuscatedName()));
+                names.add(strings.get(field.getObfuscatedName()));
+                memberOut.writeInt(field.getSignature().getType().map(type -> strings.get(type.toString())).orElse(-1));
+                memberOut.writeInt(strings.get(field.getDeobfuscatedName()));
+            }
+
+            Collection<MethodMapping> methods = mapping.getMethodMappings();
+            memberOut.writeInt(methods.size());
+            for (MethodMapping method : methods) {
+                memberOut.writeInt(strings.get(method.getObfuscatedName()));
+                names.add(strings.get(method.getObfuscatedName()));
+                memberOut.writeInt(strings.get(method.getSignature().getDescriptor().toString()));
+                memberOut.writeInt(strings.get(method.getDeobfuscatedName()));
+
+                Collection<MethodParameterMapping> parameters = method.getParameterMappings();
+                memberOut.writeInt(parameters.size());
+                for (MethodParameterMapping parameter : parameters) {
+                    memberOut.writeInt(parameter.getIndex());
+                    memberOut.writeInt(strings.get(parameter.getDeobfuscatedName()));
+                }
+            }
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            strings.write(out);
+
+            out.writeInt(names.size());
+            for (int name : names) {
+                out.writeInt(name);
+            }
+
+            out.writeInt(classes.size());
+            classTable.writeTo(out);
+            memberTable.writeTo(out);
+        }
+    }
+
+    /**
+     * Opens a snapshot previously written with
+     * {@link #write(MappingSet, Path)}.
+     *
+     * @param file The snapshot file
+     * @return The mapping index backed by the snapshot
+     * @throws IOException If an I/O error occurs, or the file is not a
+     *     snapshot of a supported version
+     */
+    public static MappingIndex open(Path file) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a mapping snapshot: " + file);
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported mapping snapshot version " + buffer.getInt(4) + ": " + file);
+        }
+        return new SnapshotIndex(buffer);
+    }
+
+    private static void collectClasses(ClassMapping<?, ?> mapping, List<ClassMapping<?, ?>> classes) {
+        classes.add(mapping);
+        for (InnerClassMapping inner : mapping.getInnerClassMappings()) {
+            collectClasses(inner, classes);
+        }
+    }
+
+    private static String getObfuscatedName(ClassMapping<?, ?> mapping) {
+        return mapping.getFullObfuscatedName().replace('/', '.');
+    }
+
+    private MappingSnapshot() {
+    }
+
+    private static final class StringTable {
+
+        private final Map<String, Integer> indices = new HashMap<>();
+        private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        private final List<Integer> offsets = new ArrayList<>();
+
+        int get(String s) {
+            return this.indices.computeIfAbsent(s, key -> {
+                this.offsets.add(this.data.size());
+                byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+                this.data.write(bytes, 0, bytes.length);
+                return this.offsets.size() - 1;
+            });
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(this.offsets.size());
+            for (int offset : this.offsets) {
+                out.writeInt(offset);
+            }
+            out.writeInt(this.data.size());
+            this.data.writeTo(out);
+        }
+
+    }
+
+    private static final class SnapshotIndex extends FrozenMappingIndex {
+
+        private final ByteBuffer buffer;
+        private final int stringOffsets;
+        private final int stringData;
+        private final int nameCount;
+        private final int nameTable;
+        private final int classCount;
+        private final int classTable;
+        private final int memberTable;
+
+        /**
+         * The strings and classes read so far. Both are immutable, so they
+         * can be cached without synchronization: at worst, an entry is read
+         * twice by concurrent lookups.
+         */
+        private final String[] strings;
+        private final FrozenClass[] classes;
+
+        private SnapshotIndex(ByteBuffer buffer) {
+            this.buffer = buffer;
+
+            int stringCount = buffer.getInt(8);
+            this.stringOffsets = HEADER_SIZE;
+            int stringDataSize = this.stringOffsets + stringCount * Integer.BYTES;
+            this.stringData = stringDataSize + Integer.BYTES;
+
+            int nameCountOffset = this.stringData + buffer.getInt(stringDataSize);
+            this.nameCount = buffer.getInt(nameCountOffset);
+            this.nameTable = nameCountOffset + Integer.BYTES;
+
+            int classCountOffset = this.nameTable + this.nameCount * Integer.BYTES;
+            this.classCount = buffer.getInt(classCountOffset);
+            this.classTable = classCountOffset + Integer.BYTES;
+            this.memberTable = this.classTable + this.classCount * CLASS_SIZE;
+
+            this.strings = new String[stringCount];
+            this.classes = new FrozenClass[this.classCount];
+        }
+
+        private String getString(int index) {
+            if (index == -1) {
+                return null;
+            }
+
+            String result = this.strings[index];
+            if (result == null) {
+                int start = this.buffer.getInt(this.stringOffsets + index * Integer.BYTES);
+                int end = index + 1 < this.strings.length ?
+                        this.buffer.getInt(this.stringOffsets + (index + 1) * Integer.BYTES) :
+                        this.buffer.getInt(this.stringData - Integer.BYTES);
+
+                byte[] bytes = new byte[end - start];
+                ByteBuffer data = this.buffer.duplicate();
+                data.position(this.stringData + start);
+                data.get(bytes);
+
+                result = new String(bytes, StandardCharsets.UTF_8);
+                this.strings[index] = result;
+            }
+            return result;
+        }
+
+        private int getClassInt(int index, int field) {
+            return this.buffer.getInt(this.classTable + index * CLASS_SIZE + field * Integer.BYTES);
+        }
+
+        private FrozenClass getClass(int index) {
+            FrozenClass result = this.classes[index];
+            if (result == null) {
+                result = readClass(index);
+                this.classes[index] = result;
+            }
+            return result;
+        }
+
+        private FrozenClass readClass(int index) {
+            int parent = getClassInt(index, 5);
+            int position = this.memberTable + getClassInt(index, 6);
+
+            int innerCount = this.buffer.getInt(position);
+            position += Integer.BYTES;
+            List<String> innerClasses = new ArrayList<>(innerCount);
+            for (int i = 0; i < innerCount; i++, position += Integer.BYTES) {
+                innerClasses.add(getString(this.buffer.getInt(position)));
+            }
+
+            int fieldCount = this.buffer.getInt(position);
+            position += Integer.BYTES;
+            List<FrozenField> fields = new ArrayList<>(fieldCount);
+            for (int i = 0; i < fieldCount; i++, position += 3 * Integer.BYTES) {
+                fields.add(new FrozenField(
+                        getString(this.buffer.getInt(position)),
+                        getString(this.buffer.getInt(position + Integer.BYTES)),
+                        getString(this.buffer.getInt(position + 2 * Integer.BYTES))
+                ));
+            }
+
+            int methodCount = this.buffer.getInt(position);
+            position += Integer.BYTES;
+            List<FrozenMethod> methods = new ArrayList<>(methodCount);
+            for (int i = 0; i < methodCount; i++) {
+                MethodSignature signature = MethodSignature.of(
+                        getString(this.buffer.getInt(position)),
+                        getString(this.buffer.getInt(position + Integer.BYTES))
+                );
+                String deobfuscatedName = getString(this.buffer.getInt(position + 2 * Integer.BYTES));
+                int parameterCount = this.buffer.getInt(position + 3 * Integer.BYTES);
+                position += 4 * Integer.BYTES;
+
+                Map<Integer, String> parameters = new TreeMap<>();
+                for (int j = 0; j < parameterCount; j++, position += 2 * Integer.BYTES) {
+                    parameters.put(this.buffer.getInt(position), getString(this.buffer.getInt(position + Integer.BYTES)));
+                }
+                methods.add(new FrozenMethod(signature, deobfuscatedName, parameters));
+            }
+
+            return new FrozenClass(this, parent != -1 ? getClass(parent) : null,
+                    getString(getClassInt(index, 0)),
+                    getString(getClassInt(index, 1)),
+                    getString(getClassInt(index, 2)),
+                    getString(getClassInt(index, 3)),
+                    getString(getClassInt(index, 4)),
+                    innerClasses, fields, methods);
+        }
+
+        @Override
+        FrozenClass getMapping(String binaryName) {
+            int low = 0;
+            int high = this.classCount - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = getString(getClassInt(mid, 0)).compareTo(binaryName);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return getClass(mid);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public Set<String> getObfuscatedNames() {
+            // Stored separately, so the classes do not have to be read
+            Set<String> result = new HashSet<>(this.nameCount * 2);
+            for (int i = 0; i < this.nameCount; i++) {
+                result.add(getString(this.buffer.getInt(this.nameTable + i * Integer.BYTES)));
+            }
+            return Collections.unmodifiableSet(result);
+        }
+
+        @Override
+        public Collection<? extends ClassEntry> getTopLevelClasses() {
+            List<FrozenClass> result = new ArrayList<>();
+            for (int i = 0; i < this.classCount; i++) {
+                if (getClassInt(i, 5) == -1) {
+                    result.add(getClass(i));
+                }
+            }
+            return Collections.unmodifiableList(result);
+        }
+
+    }
+
+}
@@ -11,49 +11,357 @@
 package org.cadixdev.mercury.remapper;
 
 import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.mercury.Mercury;
 import org.cadixdev.mercury.RewriteContext;
 import org.cadixdev.mercury.SourceRewriter;
+import org.cadixdev.mercury.SourceSummary;
+import org.cadixdev.mercury.remapper.MappingIndex.ClassEntry;
+import org.cadixdev.mercury.remapper.MappingIndex.FieldEntry;
+import org.cadixdev.mercury.remapper.MappingIndex.MethodEntry;
+import org.cadixdev.mercury.util.Fingerprint;
+import org.eclipse.jdt.core.dom.ASTVisitor;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 
 public final class MercuryRemapper implements SourceRewriter {
 
     public static SourceRewriter create(MappingSet mappings) {
-        return new MercuryRemapper(mappings, false, true);
+        return create(MappingIndex.of(mappings));
     }
 
     public static SourceRewriter create(MappingSet mappings, boolean javadoc) {
-        return new MercuryRemapper(mappings, false, javadoc);
+        return create(MappingIndex.of(mappings), javadoc);
     }
 
     public static SourceRewriter createSimple(MappingSet mappings) {
-        return new MercuryRemapper(mappings, true, true);
+        return createSimple(MappingIndex.of(mappings));
     }
 
     public static SourceRewriter createSimple(MappingSet mappings, boolean javadoc) {
+        return createSimple(MappingIndex.of(mappings), javadoc);
+    }
+
+    /**
+     * Creates a remapper for the given mapping index. Use
+     * {@link MappingIndex#freeze(MappingSet)} to compile the mappings once
+     * and share them across several rewrites.
+     *
+     * @param mappings The mappings to use
+     * @return The remapper
+     */
+    public static SourceRewriter create(MappingIndex mappings) {
+        return new MercuryRemapper(mappings, false, true);
+    }
+
+    public static SourceRewriter create(MappingIndex mappings, boolean javadoc) {
+        return new MercuryRemapper(mappings, false, javadoc);
+    }
+
+    public static SourceRewriter createSimple(MappingIndex mappings) {
+        return new MercuryRemapper(mappings, true, true);
+    }
+
+    public static SourceRewriter createSimple(MappingIndex mappings, boolean javadoc) {
         return new MercuryRemapper(mappings, true, javadoc);
     }
 
-    private final MappingSet mappings;
+    /**
+     * Creates a remapper for moving from one version of the mappings to the
+     * next. For {@link Mercury#isIncremental() incremental} rewrites, the
+     * output of a previous rewrite with the {@code previous} mappings is kept
+     * for all source files that do not reference any of the changed mappings.
+     *
+     * @param previous The mappings used for the previous rewrite
+     * @param mappings The mappings to use
+     * @return The remapper
+     */
+    public static SourceRewriter createDelta(MappingSet previous, MappingSet mappings) {
+        return createDelta(MappingIndex.of(previous), MappingIndex.of(mappings));
+    }
+
+    public static SourceRewriter createDelta(MappingSet previous, MappingSet mappings, boolean javadoc) {
+        return createDelta(MappingIndex.of(previous), MappingIndex.of(mappings), javadoc);
+    }
+
+    public static SourceRewriter createDelta(MappingIndex previous, MappingIndex mappings) {
+        return new MercuryRemapper(mappings, false, true, Objects.requireNonNull(previous, "previous"));
+    }
+
+    public static SourceRewriter createDelta(MappingIndex previous, MappingIndex mappings, boolean javadoc) {
+        return new MercuryRemapper(mappings, false, javadoc, Objects.requireNonNull(previous, "previous"));
+    }
+
+    private final MappingIndex mappings;
     private final boolean simple;
     private final boolean javadoc;
 
-    private MercuryRemapper(MappingSet mappings, boolean simple, boolean javadoc) {
+    /**
+     * The mappings of the previous rewrite, only set for delta remappers.
+     */
+    private final MappingIndex previous;
+
+    /**
+     * The mappings used by the visitors in the current rewrite. These are
+     * frozen when rewriting with several threads, if they are backed by a
+     * mutable {@link MappingSet}.
+     */
+    private MappingIndex index;
+
+    /**
+     * The obfuscated simple names of all classes and members in the mappings,
+     * only collected when source filtering is enabled.
+     */
+    private Set<String> obfuscatedNames;
+
+    /**
+     * Skips resolving the bindings of names that cannot refer to any of the
+     * mappings. Not used when references are recorded, since later mappings
+     * may map any name.
+     */
+    private IdentifierGate gate;
+
+    /**
+     * The mappings looked up by each source file remapped in the current
+     * rewrite, only recorded for incremental rewrites.
+     */
+    private ReferenceIndex references;
+    private ReferenceIndex previousReferences;
+    private Set<String> skippedFiles;
+
+    /**
+     * The fingerprint of the previous mappings, and the keys of all mappings
+     * that changed since, only computed for delta remappers.
+     */
+    private String previousFingerprint;
+    private Set<String> delta;
+
+    private MercuryRemapper(MappingIndex mappings, boolean simple, boolean javadoc) {
+        this(mappings, simple, javadoc, null);
+    }
+
+    private MercuryRemapper(MappingIndex mappings, boolean simple, boolean javadoc, MappingIndex previous) {
         this.mappings = Objects.requireNonNull(mappings, "mappings");
         this.simple = simple;
         this.javadoc = javadoc;
+        this.previous = previous;
     }
 
     @Override
     public int getFlags() {
-        return FLAG_RESOLVE_BINDINGS;
+        return FLAG_RESOLVE_BINDINGS | FLAG_PARSE_PROFILE | FLAG_BINDINGS_RECOVERY | (this.javadoc ? FLAG_JAVADOC : 0);
+    }
+
+    @Override
+    public void initialize(Mercury mercury) throws IOException {
+        this.index = mercury.getThreads() > 1 && this.mappings instanceof LorenzMappingIndex ?
+                ((LorenzMappingIndex) this.mappings).freeze() : this.mappings;
+
+        if (mercury.isIncremental() && mercury.getOutputDir() != null) {
+            this.references = new ReferenceIndex();
+            this.previousReferences = ReferenceIndex.read(mercury.getOutputDir().resolve(ReferenceIndex.FILE));
+            this.skippedFiles = new HashSet<>();
+
+            if (this.previous != null) {
+                this.previousFingerprint = getFingerprint(this.previous);
+                this.delta = MappingDelta.compute(this.previous, this.mappings);
+            }
+        } else {
+            this.references = null;
+            this.previousReferences = null;
+            this.skippedFiles = null;
+        }
+
+        // Only collected if needed, since they may not be precomputed by the index
+        Set<String> obfuscatedNames = mercury.isSourceFiltering() || this.references == null ?
+                this.index.getObfuscatedNames() : null;
+        this.obfuscatedNames = mercury.isSourceFiltering() ? obfuscatedNames : null;
+        this.gate = this.references == null ? new IdentifierGate(obfuscatedNames) : null;
+    }
+
+    /**
+     * Gets the number of simple names visited in the current (or last)
+     * rewrite.
+     *
+     * @return The number of visited names
+     */
+    public long getVisitedNames() {
+        return this.gate != null ? this.gate.getVisitedNames() : 0;
+    }
+
+    /**
+     * Gets the number of visited names whose binding was resolved, because
+     * they may refer to one of the mappings. Together with
+     * {@link #getVisitedNames()}, this gives the hit ratio of the check
+     * before resolving bindings.
+     *
+     * @return The number of resolved names
+     */
+    public long getResolvedNames() {
+        return this.gate != null ? this.gate.getResolvedNames() : 0;
+    }
+
+    @Override
+    public String getFingerprint() {
+        return getFingerprint(this.mappings);
+    }
+
+    private String getFingerprint(MappingIndex mappings) {
+        Fingerprint fingerprint = Fingerprint.create()
+                .put(this.simple)
+                .put(this.javadoc);
+
+        // Mappings are hashed in a stable order, independent of how they were read
+        for (ClassEntry mapping : sorted(mappings.getTopLevelClasses(), Comparator.comparing(ClassEntry::getObfuscatedName))) {
+            putMappings(fingerprint, mapping);
+        }
+        return fingerprint.build();
+    }
+
+    @Override
+    public boolean isOutputReusable(String previousFingerprint, SourceSummary summary) {
+        if (this.delta == null || this.previousReferences == null || !previousFingerprint.equals(this.previousFingerprint)) {
+            return false;
+        }
+
+        Set<String> references = this.previousReferences.get(getSourceFile(summary.getMercury(), summary.getSourceFile()));
+        if (references == null) {
+            return false;
+        }
+
+        for (String reference : references) {
+            if (this.delta.contains(reference)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isRelevant(SourceSummary summary) throws IOException {
+        if (isRelevantSource(summary)) {
+            return true;
+        }
+
+        if (this.skippedFiles != null) {
+            // The file is copied as-is, so it has no references
+            this.skippedFiles.add(getSourceFile(summary.getMercury(), summary.getSourceFile()));
+        }
+        return false;
+    }
+
+    private boolean isRelevantSource(SourceSummary summary) throws IOException {
+        if (this.obfuscatedNames == null) {
+            return true;
+        }
+
+        // Every reference to a mapped class or member has to mention its name
+        for (String identifier : summary.getIdentifiers()) {
+            if (this.obfuscatedNames.contains(identifier)) {
+                return true;
+            }
+        }
+
+        if (this.javadoc) {
+            for (String identifier : summary.getJavadocIdentifiers()) {
+                if (this.obfuscatedNames.contains(identifier)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    public ASTVisitor createRewriteVisitor(RewriteContext context) {
+        Set<String> references = null;
+        if (this.references != null) {
+            // Filled in while the source file is remapped
+            references = new HashSet<>();
+            this.references.put(getSourceFile(context.getMercury(), context.getSourceFile()), references);
+        }
+
+        return this.simple ?
+                new SimpleRemapperVisitor(context, this.index, this.javadoc, references, this.gate) :
+                new RemapperVisitor(context, this.index, this.javadoc, references, this.gate);
     }
 
     @Override
     public void rewrite(RewriteContext context) {
-        context.getCompilationUnit().accept(this.simple ?
-                new SimpleRemapperVisitor(context, this.mappings, this.javadoc) :
-                new RemapperVisitor(context, this.mappings, this.javadoc));
+        context.getCompilationUnit().accept(createRewriteVisitor(context));
+    }
+
+    @Override
+    public void finish(Mercury mercury) throws IOException {
+        if (this.references == null) {
+            return;
+        }
+
+        // Keep the references of source files whose previous output was reused
+        for (String sourceFile : this.previousReferences.getSourceFiles()) {
+            if (this.references.get(sourceFile) == null && !this.skippedFiles.contains(sourceFile)
+                    && Files.exists(mercury.getSourceDir().resolve(sourceFile))) {
+                this.references.put(sourceFile, this.previousReferences.get(sourceFile));
+            }
+        }
+
+        this.references.write(mercury.getOutputDir().resolve(ReferenceIndex.FILE));
+        this.references = null;
+        this.previousReferences = null;
+        this.skippedFiles = null;
+    }
+
+    private static String getSourceFile(Mercury mercury, Path sourceFile) {
+        return mercury.getSourceDir().relativize(sourceFile).toString().replace(File.separatorChar, '/');
+    }
+
+    private static void putMappings(Fingerprint fingerprint, ClassEntry mapping) {
+        fingerprint.put(mapping.getObfuscatedName()).put(mapping.getFullDeobfuscatedName());
+
+        Collection<? extends FieldEntry> fields = mapping.getFields();
+        fingerprint.put(fields.size());
+        for (FieldEntry field : sorted(fields, Comparator.comparing(MercuryRemapper::getFieldKey))) {
+            fingerprint.put(getFieldKey(field)).put(field.getDeobfuscatedName());
+        }
+
+        Collection<? extends MethodEntry> methods = mapping.getMethods();
+        fingerprint.put(methods.size());
+        for (MethodEntry method : sorted(methods, Comparator.comparing(m -> m.getSignature().toJvmsIdentifier()))) {
+            fingerprint.put(method.getSignature().toJvmsIdentifier()).put(method.getDeobfuscatedName());
+
+            Map<Integer, String> parameters = method.getParameterNames();
+            fingerprint.put(parameters.size());
+            for (Map.Entry<Integer, String> parameter : parameters.entrySet()) {
+                fingerprint.put(parameter.getKey()).put(parameter.getValue());
+            }
+        }
+
+        Collection<? extends ClassEntry> innerClasses = mapping.getInnerClasses();
+        fingerprint.put(innerClasses.size());
+        for (ClassEntry inner : sorted(innerClasses, Comparator.comparing(ClassEntry::getSimpleObfuscatedName))) {
+            putMappings(fingerprint, inner);
+        }
+    }
+
+    private static String getFieldKey(FieldEntry mapping) {
+        return mapping.getObfuscatedName() + ':' + (mapping.getType() != null ? mapping.getType() : "");
+    }
+
+    private static <T> List<T> sorted(Collection<? extends T> mappings, Comparator<? super T> comparator) {
+        List<T> result = new ArrayList<>(mappings);
+        result.sort(comparator);
+        return result;
     }
 
 }
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.remapper;
+
+import org.cadixdev.bombe.type.signature.MethodSignature;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records which mappings each source file looked up while it was remapped,
+ * so a later rewrite can tell which files are affected by changed mappings
+ * (see {@link MappingDelta}).
+ *
+ * <p>Mappings are identified by keys: classes by their binary name, fields
+ * by their name, methods (and their parameters) by their name and
+ * descriptor. Members are intentionally not qualified with their owner, since
+ * the mapping of an inherited member may come from any of its super types.</p>
+ */
+final class ReferenceIndex {
+
+    static final String FILE = ".mercury-references";
+
+    private static final String HEADER = "# Mercury reference index 1";
+    private static final String SEPARATOR = "\t";
+
+    static String classKey(String binaryName) {
+        return "C:" + binaryName.replace('.', '/');
+    }
+
+    static String fieldKey(String name) {
+        return "F:" + name;
+    }
+
+    static String methodKey(MethodSignature signature) {
+        return "M:" + signature.toJvmsIdentifier();
+    }
+
+    static String parameterKey(MethodSignature signature) {
+        return "P:" + signature.toJvmsIdentifier();
+    }
+
+    private final Map<String, Set<String>> references = new ConcurrentHashMap<>();
+
+    Set<String> get(String sourceFile) {
+        return this.references.get(sourceFile);
+    }
+
+    void put(String sourceFile, Set<String> references) {
+        this.references.put(sourceFile, references);
+    }
+
+    Set<String> getSourceFiles() {
+        return this.references.keySet();
+    }
+
+    static ReferenceIndex read(Path file) throws IOException {
+        ReferenceIndex index = new ReferenceIndex();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(reader.readLine())) {
+                return index;
+            }
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(SEPARATOR);
+                index.put(parts[0], new HashSet<>(Arrays.asList(parts).subList(1, parts.length)));
+            }
+        } catch (NoSuchFileException e) {
+            // No previous index
+        }
+        return index;
+    }
+
+    void write(Path file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.newLine();
+
+            List<String> sourceFiles = new ArrayList<>(this.references.keySet());
+            Collections.sort(sourceFiles);
+            for (String sourceFile : sourceFiles) {
+                writer.write(sourceFile);
+                for (String reference : this.references.get(sourceFile)) {
+                    writer.write(SEPARATOR);
+                    writer.write(reference);
+                }
+                writer.newLine();
+            }
+        }
+    }
+
+}
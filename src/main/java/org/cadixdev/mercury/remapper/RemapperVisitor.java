@@ -12,13 +12,9 @@
 
 import static org.cadixdev.mercury.util.BombeBindings.isPackagePrivate;
 
-import org.cadixdev.lorenz.MappingSet;
-import org.cadixdev.lorenz.model.ClassMapping;
-import org.cadixdev.lorenz.model.InnerClassMapping;
-import org.cadixdev.lorenz.model.Mapping;
-import org.cadixdev.lorenz.model.TopLevelClassMapping;
 import org.cadixdev.mercury.RewriteContext;
 import org.cadixdev.mercury.jdt.rewrite.imports.ImportRewrite;
+import org.cadixdev.mercury.remapper.MappingIndex.ClassEntry;
 import org.cadixdev.mercury.util.GracefulCheck;
 import org.eclipse.jdt.core.dom.AST;
 import org.eclipse.jdt.core.dom.ASTNode;
@@ -27,12 +23,17 @@
 import org.eclipse.jdt.core.dom.AnnotationTypeDeclaration;
 import org.eclipse.jdt.core.dom.AnnotationTypeMemberDeclaration;
 import org.eclipse.jdt.core.dom.AnonymousClassDeclaration;
+import org.eclipse.jdt.core.dom.EnumConstantDeclaration;
 import org.eclipse.jdt.core.dom.EnumDeclaration;
+import org.eclipse.jdt.core.dom.ExpressionMethodReference;
+import org.eclipse.jdt.core.dom.FieldAccess;
 import org.eclipse.jdt.core.dom.IBinding;
 import org.eclipse.jdt.core.dom.IDocElement;
 import org.eclipse.jdt.core.dom.ITypeBinding;
 import org.eclipse.jdt.core.dom.ImportDeclaration;
 import org.eclipse.jdt.core.dom.Javadoc;
+import org.eclipse.jdt.core.dom.MethodDeclaration;
+import org.eclipse.jdt.core.dom.MethodInvocation;
 import org.eclipse.jdt.core.dom.Modifier;
 import org.eclipse.jdt.core.dom.Name;
 import org.eclipse.jdt.core.dom.NameQualifiedType;
@@ -41,14 +42,22 @@
 import org.eclipse.jdt.core.dom.QualifiedType;
 import org.eclipse.jdt.core.dom.SimpleName;
 import org.eclipse.jdt.core.dom.SimpleType;
+import org.eclipse.jdt.core.dom.SingleVariableDeclaration;
+import org.eclipse.jdt.core.dom.StructuralPropertyDescriptor;
+import org.eclipse.jdt.core.dom.SuperFieldAccess;
+import org.eclipse.jdt.core.dom.SuperMethodInvocation;
+import org.eclipse.jdt.core.dom.SuperMethodReference;
 import org.eclipse.jdt.core.dom.TagElement;
 import org.eclipse.jdt.core.dom.TypeDeclaration;
+import org.eclipse.jdt.core.dom.TypeMethodReference;
+import org.eclipse.jdt.core.dom.VariableDeclarationFragment;
 import org.eclipse.jdt.core.dom.rewrite.ASTRewrite;
 import org.eclipse.jdt.core.dom.rewrite.ListRewrite;
 import org.eclipse.jdt.internal.compiler.lookup.PackageBinding;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -58,19 +67,38 @@
 
 class RemapperVisitor extends SimpleRemapperVisitor {
 
+    /**
+     * The locations of names that always refer to a method or variable.
+     */
+    private static final Set<StructuralPropertyDescriptor> MEMBER_NAME_PROPERTIES = new HashSet<>(Arrays.asList(
+            MethodInvocation.NAME_PROPERTY,
+            SuperMethodInvocation.NAME_PROPERTY,
+            FieldAccess.NAME_PROPERTY,
+            SuperFieldAccess.NAME_PROPERTY,
+            ExpressionMethodReference.NAME_PROPERTY,
+            SuperMethodReference.NAME_PROPERTY,
+            TypeMethodReference.NAME_PROPERTY,
+            MethodDeclaration.NAME_PROPERTY,
+            AnnotationTypeMemberDeclaration.NAME_PROPERTY,
+            EnumConstantDeclaration.NAME_PROPERTY,
+            VariableDeclarationFragment.NAME_PROPERTY,
+            SingleVariableDeclaration.NAME_PROPERTY
+    ));
+
     private final ImportRewrite importRewrite;
     private final Deque<ImportContext> importStack = new ArrayDeque<>();
     private final String simpleDeobfuscatedName;
 
-    RemapperVisitor(RewriteContext context, MappingSet mappings, boolean javadoc) {
-        super(context, mappings, javadoc);
+    RemapperVisitor(RewriteContext context, MappingIndex mappings, boolean javadoc, Set<String> references, IdentifierGate gate) {
+        super(context, mappings, javadoc, references, gate);
 
         this.importRewrite = context.createImportRewrite();
         importRewrite.setUseContextToFilterImplicitImports(true);
 
-        TopLevelClassMapping primary = mappings.getTopLevelClassMapping(context.getQualifiedPrimaryType()).orElse(null);
+        referenceClass(context.getQualifiedPrimaryType());
+        ClassEntry primary = mappings.getTopLevelClass(context.getQualifiedPrimaryType());
         if (primary != null) {
-            context.setPackageName(primary.getDeobfuscatedPackage().replace('/', '.'));
+            context.setPackageName(primary.getDeobfuscatedPackage());
             this.importRewrite.setImplicitPackageName(context.getPackageName());
 
             this.simpleDeobfuscatedName = primary.getSimpleDeobfuscatedName();
@@ -86,9 +114,9 @@ class RemapperVisitor extends SimpleRemapperVisitor {
                 if (name.equals(simpleObfuscatedName)) {
                     implicitTypes.add(simpleDeobfuscatedName);
                 } else {
-                    implicitTypes.add(mappings.getTopLevelClassMapping(context.getPackageName() + '.' + name)
-                        .map(Mapping::getSimpleDeobfuscatedName)
-                        .orElse(name));
+                    referenceClass(context.getPackageName() + '.' + name);
+                    ClassEntry mapping = mappings.getTopLevelClass(context.getPackageName() + '.' + name);
+                    implicitTypes.add(mapping != null ? mapping.getSimpleDeobfuscatedName() : name);
                 }
             }
             this.importRewrite.setImplicitTypes(implicitTypes);
@@ -106,7 +134,8 @@ private void remapType(SimpleName node, ITypeBinding binding) {
             throw new IllegalStateException("Binary name for binding " + binding.getQualifiedName() + " is null. Did you forget to add a library to the classpath?");
         }
 
-        ClassMapping<?, ?> mapping = this.mappings.computeClassMapping(binding.getBinaryName()).orElse(null);
+        referenceClass(binding.getBinaryName());
+        ClassEntry mapping = this.mappings.computeClass(binding.getBinaryName());
 
         if (node.getParent() instanceof AbstractTypeDeclaration
                 || node.getParent() instanceof QualifiedType
@@ -118,12 +147,12 @@ private void remapType(SimpleName node, ITypeBinding binding) {
             return;
         }
 
-        String qualifiedName = (mapping != null ? mapping.getFullDeobfuscatedName().replace('/', '.') : binding.getBinaryName()).replace('$', '.');
+        String qualifiedName = (mapping != null ? mapping.getFullDeobfuscatedName() : binding.getBinaryName()).replace('$', '.');
         String newName = this.importRewrite.addImport(qualifiedName, this.importStack.peek());
 
         if (!node.getIdentifier().equals(newName) && !node.isVar()) {
             if (newName.indexOf('.') == -1) {
-                this.context.createASTRewrite().set(node, SimpleName.IDENTIFIER_PROPERTY, newName, null);
+                this.context.renameIdentifier(node, newName);
             } else {
                 // Qualified name
                 this.context.createASTRewrite().replace(node, node.getAST().newName(newName), null);
@@ -139,13 +168,14 @@ private void remapQualifiedType(QualifiedName node, ITypeBinding binding) {
             }
             throw new IllegalStateException("No binary name for " + binding.getQualifiedName());
         }
-        TopLevelClassMapping mapping = this.mappings.getTopLevelClassMapping(binaryName).orElse(null);
+        referenceClass(binaryName);
+        ClassEntry mapping = this.mappings.getTopLevelClass(binaryName);
 
         if (mapping == null) {
             return;
         }
 
-        String newName = mapping.getDeobfuscatedName().replace('/', '.');
+        String newName = mapping.getFullDeobfuscatedName();
         if (binaryName.equals(newName)) {
             return;
         }
@@ -162,18 +192,28 @@ private void remapInnerType(QualifiedName qualifiedName, ITypeBinding outerClass
             throw new IllegalStateException("No binary name for " + outerClass.getQualifiedName());
         }
 
-        ClassMapping<?, ?> outerClassMapping = this.mappings.computeClassMapping(binaryName).orElse(null);
+        SimpleName node = qualifiedName.getName();
+        referenceClass(binaryName);
+        referenceClass(binaryName + '$' + node.getIdentifier());
+
+        ClassEntry outerClassMapping = this.mappings.computeClass(binaryName);
         if (outerClassMapping == null) {
             return;
         }
 
-        SimpleName node = qualifiedName.getName();
-        InnerClassMapping mapping = outerClassMapping.getInnerClassMapping(node.getIdentifier()).orElse(null);
+        ClassEntry mapping = outerClassMapping.getInnerClass(node.getIdentifier());
         if (mapping == null) {
             return;
         }
 
-        updateIdentifier(node, mapping.getDeobfuscatedName());
+        updateIdentifier(node, mapping.getSimpleDeobfuscatedName());
+    }
+
+    @Override
+    boolean needsBinding(SimpleName node) {
+        // Any other name may refer to a type, which may need a different
+        // import even if the type itself is not remapped
+        return !MEMBER_NAME_PROPERTIES.contains(node.getLocationInParent()) || super.needsBinding(node);
     }
 
     @Override
@@ -274,7 +314,8 @@ public boolean visit(NameQualifiedType node) {
             throw new IllegalStateException("No binding for qualified name node " + node.getName());
         }
 
-        final ClassMapping<?, ?> classMapping = this.mappings.computeClassMapping(binding.getBinaryName()).orElse(null);
+        referenceClass(binding.getBinaryName());
+        final ClassEntry classMapping = this.mappings.computeClass(binding.getBinaryName());
         if (classMapping == null) {
             return false;
         }
@@ -295,7 +336,7 @@ public boolean visit(NameQualifiedType node) {
             rewrite.replace(node, nameNode, null);
         } else {
             // qualified -> other qualified:
-            rewrite.set(node, NameQualifiedType.QUALIFIER_PROPERTY, node.getAST().newName(deobfPackage.replace('/', '.')), null);
+            rewrite.set(node, NameQualifiedType.QUALIFIER_PROPERTY, node.getAST().newName(deobfPackage), null);
         }
         node.getName().accept(this);
 
@@ -336,8 +377,9 @@ public boolean visit(ImportDeclaration node) {
                         throw new IllegalStateException("No binary name for " + typeBinding.getQualifiedName() + ". Did you add the library to the classpath?");
                     }
 
-                    ClassMapping<?, ?> mapping = this.mappings.computeClassMapping(name).orElse(null);
-                    if (mapping != null && !name.equals(mapping.getFullDeobfuscatedName().replace('/', '.'))) {
+                    referenceClass(name);
+                    ClassEntry mapping = this.mappings.computeClass(name);
+                    if (mapping != null && !name.equals(mapping.getFullDeobfuscatedName())) {
                         this.importRewrite.removeImport(typeBinding.getQualifiedName());
                     } else if (this.simpleDeobfuscatedName != null && this.simpleDeobfuscatedName.equals(typeBinding.getName())) {
                         this.importRewrite.removeImport(typeBinding.getQualifiedName());
@@ -374,7 +416,8 @@ private void collectImportContext(ImportContext context, ITypeBinding binding) {
                 }
             }
 
-            ClassMapping<?, ?> mapping = this.mappings.computeClassMapping(inner.getBinaryName()).orElse(null);
+            referenceClass(inner.getBinaryName());
+            ClassEntry mapping = this.mappings.computeClass(inner.getBinaryName());
 
             if (isPackagePrivate(modifiers)) {
                 // Must come from the same package
@@ -388,7 +431,7 @@ private void collectImportContext(ImportContext context, ITypeBinding binding) {
             String qualifiedName;
             if (mapping != null) {
                 simpleName = mapping.getSimpleDeobfuscatedName();
-                qualifiedName = mapping.getFullDeobfuscatedName().replace('/', '.').replace('$', '.');
+                qualifiedName = mapping.getFullDeobfuscatedName().replace('$', '.');
             } else {
                 simpleName = inner.getName();
                 qualifiedName = inner.getBinaryName().replace('$', '.');
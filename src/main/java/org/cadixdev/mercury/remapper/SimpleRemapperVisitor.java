@@ -15,15 +15,11 @@
 import org.cadixdev.bombe.analysis.InheritanceProvider;
 import org.cadixdev.bombe.type.signature.FieldSignature;
 import org.cadixdev.bombe.type.signature.MethodSignature;
-import org.cadixdev.lorenz.MappingSet;
-import org.cadixdev.lorenz.model.ClassMapping;
-import org.cadixdev.lorenz.model.FieldMapping;
-import org.cadixdev.lorenz.model.InnerClassMapping;
-import org.cadixdev.lorenz.model.MemberMapping;
-import org.cadixdev.lorenz.model.MethodMapping;
-import org.cadixdev.lorenz.model.MethodParameterMapping;
 import org.cadixdev.mercury.RewriteContext;
 import org.cadixdev.mercury.analysis.MercuryInheritanceProvider;
+import org.cadixdev.mercury.remapper.MappingIndex.ClassEntry;
+import org.cadixdev.mercury.remapper.MappingIndex.FieldEntry;
+import org.cadixdev.mercury.remapper.MappingIndex.MethodEntry;
 import org.cadixdev.mercury.util.GracefulCheck;
 import org.eclipse.jdt.core.dom.ASTNode;
 import org.eclipse.jdt.core.dom.ASTVisitor;
@@ -32,6 +28,7 @@
 import org.eclipse.jdt.core.dom.IMethodBinding;
 import org.eclipse.jdt.core.dom.ITypeBinding;
 import org.eclipse.jdt.core.dom.IVariableBinding;
+import org.eclipse.jdt.core.dom.Javadoc;
 import org.eclipse.jdt.core.dom.LambdaExpression;
 import org.eclipse.jdt.core.dom.MethodDeclaration;
 import org.eclipse.jdt.core.dom.SimpleName;
@@ -43,7 +40,6 @@
 import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
-import java.util.Optional;
 import java.util.Set;
 import java.util.function.BiFunction;
 
@@ -57,19 +53,61 @@ class SimpleRemapperVisitor extends ASTVisitor {
     private static final String NEW_PARAM_NAMES_PROPERTY = "org.cadixdev.mercury.newParamNames";
 
     final RewriteContext context;
-    final MappingSet mappings;
+    final MappingIndex mappings;
     private final InheritanceProvider inheritanceProvider;
 
-    SimpleRemapperVisitor(RewriteContext context, MappingSet mappings, boolean javadoc) {
+    /**
+     * The keys of all mappings looked up (see {@link ReferenceIndex}), or
+     * {@code null} if they are not recorded.
+     */
+    private final Set<String> references;
+
+    /**
+     * The check for names that may refer to a mapping, or {@code null} if
+     * the bindings of all names are resolved.
+     */
+    private final IdentifierGate gate;
+
+    /**
+     * The names of the variables declared so far, whose references must be
+     * resolved to remap parameters and to avoid conflicts with them.
+     */
+    private final Set<String> variableNames = new HashSet<>();
+    private int javadocDepth;
+
+    SimpleRemapperVisitor(RewriteContext context, MappingIndex mappings, boolean javadoc, Set<String> references, IdentifierGate gate) {
         super(javadoc);
         this.context = context;
         this.mappings = mappings;
         this.inheritanceProvider = MercuryInheritanceProvider.get(context.getMercury());
+        this.references = references;
+        this.gate = gate;
+    }
+
+    final void referenceClass(String binaryName) {
+        if (this.references != null && binaryName != null) {
+            this.references.add(ReferenceIndex.classKey(binaryName));
+
+            // Inner classes are also mapped implicitly by their outer classes
+            for (int index = binaryName.lastIndexOf('$'); index > 0; index = binaryName.lastIndexOf('$', index - 1)) {
+                this.references.add(ReferenceIndex.classKey(binaryName.substring(0, index)));
+            }
+        }
+    }
+
+    private void referenceMethod(IMethodBinding binding, boolean parameters) {
+        if (this.references != null) {
+            MethodSignature signature = convertSignature(binding);
+            this.references.add(ReferenceIndex.methodKey(signature));
+            if (parameters) {
+                this.references.add(ReferenceIndex.parameterKey(signature));
+            }
+        }
     }
 
     final void updateIdentifier(SimpleName node, String newName) {
         if (!node.getIdentifier().equals(newName) && !node.isVar()) {
-            this.context.createASTRewrite().set(node, SimpleName.IDENTIFIER_PROPERTY, newName, null);
+            this.context.renameIdentifier(node, newName);
         }
     }
 
@@ -78,12 +116,13 @@ private void remapMethod(SimpleName node, IMethodBinding binding) {
         if (GracefulCheck.checkGracefully(this.context, declaringClass)) {
             return;
         }
-        final ClassMapping<?, ?> classMapping = this.mappings.getOrCreateClassMapping(declaringClass.getBinaryName());
+        referenceClass(declaringClass.getBinaryName());
+        final ClassEntry classMapping = this.mappings.getOrCreateClass(declaringClass.getBinaryName());
 
         if (binding.isConstructor()) {
             updateIdentifier(node, classMapping.getSimpleDeobfuscatedName());
         } else {
-            final MethodMapping mapping = findMethodMapping(declaringClass, binding);
+            final MethodEntry mapping = findMethodMapping(declaringClass, binding, false);
             if (mapping == null) {
                 return;
             }
@@ -108,13 +147,18 @@ private void remapField(SimpleName node, IVariableBinding binding) {
             return;
         }
 
-        ClassMapping<?, ?> classMapping = this.mappings.getClassMapping(declaringClass.getBinaryName()).orElse(null);
+        referenceClass(declaringClass.getBinaryName());
+        if (this.references != null) {
+            this.references.add(ReferenceIndex.fieldKey(binding.getName()));
+        }
+
+        ClassEntry classMapping = this.mappings.getClass(declaringClass.getBinaryName());
         if (classMapping == null) {
             return;
         }
 
         FieldSignature bindingSignature = convertSignature(binding);
-        FieldMapping mapping = findMemberMapping(bindingSignature, classMapping, ClassMapping::computeFieldMapping);
+        FieldEntry mapping = findMemberMapping(bindingSignature, classMapping, ClassEntry::getField);
         if (mapping == null) {
             return;
         }
@@ -122,28 +166,30 @@ private void remapField(SimpleName node, IVariableBinding binding) {
         updateIdentifier(node, mapping.getDeobfuscatedName());
     }
 
-    private MethodMapping findMethodMapping(ITypeBinding declaringClass, IMethodBinding declaringMethod) {
-        final ClassMapping<?, ?> classMapping = this.mappings.getClassMapping(declaringClass.getBinaryName()).orElse(null);
+    private MethodEntry findMethodMapping(ITypeBinding declaringClass, IMethodBinding declaringMethod, boolean parameters) {
+        referenceClass(declaringClass.getBinaryName());
+        referenceMethod(declaringMethod, parameters);
+
+        final ClassEntry classMapping = this.mappings.getClass(declaringClass.getBinaryName());
         if (classMapping == null) {
             return null;
         }
 
         final MethodSignature methodSig = convertSignature(declaringMethod);
-        MethodMapping methodMapping = findMemberMapping(methodSig, classMapping, ClassMapping::getMethodMapping);
+        MethodEntry methodMapping = findMemberMapping(methodSig, classMapping, ClassEntry::getMethod);
         if (methodMapping == null) {
-            classMapping.complete(this.inheritanceProvider, declaringClass);
-            methodMapping = classMapping.getMethodMapping(methodSig).orElse(null);
+            methodMapping = classMapping.completeMethod(methodSig, declaringClass, this.inheritanceProvider);
         }
 
         return methodMapping;
     }
 
-    private <T extends MemberMapping<?, ?>, M> T findMemberMapping(
+    private <T, M> T findMemberMapping(
         M matcher,
-        ClassMapping<?, ?> classMapping,
-        BiFunction<ClassMapping<?, ?>, M, Optional<? extends T>> getMapping
+        ClassEntry classMapping,
+        BiFunction<ClassEntry, M, ? extends T> getMapping
     ) {
-        T mapping = getMapping.apply(classMapping, matcher).orElse(null);
+        T mapping = getMapping.apply(classMapping, matcher);
         if (mapping != null) {
             return mapping;
         }
@@ -154,33 +200,30 @@ private MethodMapping findMethodMapping(ITypeBinding declaringClass, IMethodBind
         return findMemberMappingAnonClass(matcher, classMapping, getMapping);
     }
 
-    private <T extends MemberMapping<?, ?>, M> T findMemberMappingAnonClass(
+    private <T, M> T findMemberMappingAnonClass(
         M matcher,
-        ClassMapping<?, ?> classMapping,
-        BiFunction<ClassMapping<?, ?>, M, Optional<? extends T>> getMapping
+        ClassEntry classMapping,
+        BiFunction<ClassEntry, M, ? extends T> getMapping
     ) {
         // If neither name is different then this method won't do anything
-        if (Objects.equals(classMapping.getObfuscatedName(), classMapping.getDeobfuscatedName())) {
+        if (Objects.equals(classMapping.getSimpleObfuscatedName(), classMapping.getSimpleDeobfuscatedName())) {
             return null;
         }
         // Anonymous classes must be inner classes
-        if (!(classMapping instanceof InnerClassMapping)) {
+        ClassEntry parentMapping = classMapping.getParent();
+        if (parentMapping == null) {
             return null;
         }
         // Verify this is inner class is anonymous
-        if (!classMapping.getObfuscatedName().chars().allMatch(Character::isDigit)) {
-            return null;
-        }
-        ClassMapping<?, ?> parentMapping = ((InnerClassMapping) classMapping).getParent();
-        if (parentMapping == null) {
+        if (!classMapping.getSimpleObfuscatedName().chars().allMatch(Character::isDigit)) {
             return null;
         }
 
         // Find a sibling anonymous class whose obfuscated name is our deobfuscated name
-        ClassMapping<?, ?> otherClassMapping = parentMapping
-                .getInnerClassMapping(classMapping.getDeobfuscatedName()).orElse(null);
+        referenceClass(parentMapping.getObfuscatedName() + '$' + classMapping.getSimpleDeobfuscatedName());
+        ClassEntry otherClassMapping = parentMapping.getInnerClass(classMapping.getSimpleDeobfuscatedName());
         if (otherClassMapping != null) {
-            T mapping = getMapping.apply(otherClassMapping, matcher).orElse(null);
+            T mapping = getMapping.apply(otherClassMapping, matcher);
             if (mapping != null) {
                 return mapping;
             }
@@ -188,8 +231,9 @@ private MethodMapping findMethodMapping(ITypeBinding declaringClass, IMethodBind
 
         // Find a sibling anonymous class whose deobfuscated name is our obfuscated name
         // We have to do something a little less direct for this case
-        for (InnerClassMapping innerClassMapping : parentMapping.getInnerClassMappings()) {
-            if (Objects.equals(classMapping.getObfuscatedName(), innerClassMapping.getDeobfuscatedName())) {
+        for (ClassEntry innerClassMapping : parentMapping.getInnerClasses()) {
+            referenceClass(innerClassMapping.getObfuscatedName());
+            if (Objects.equals(classMapping.getSimpleObfuscatedName(), innerClassMapping.getSimpleDeobfuscatedName())) {
                 otherClassMapping = innerClassMapping;
                 break;
             }
@@ -197,7 +241,7 @@ private MethodMapping findMethodMapping(ITypeBinding declaringClass, IMethodBind
         if (otherClassMapping == null) {
             return null;
         }
-        return getMapping.apply(otherClassMapping, matcher).orElse(null);
+        return getMapping.apply(otherClassMapping, matcher);
     }
 
     private void remapParameter(SimpleName node, IVariableBinding binding) {
@@ -232,12 +276,15 @@ private void remapParameter(SimpleName node, IVariableBinding binding) {
             return;
         }
 
-        final MethodMapping methodMapping = findMethodMapping(declaringClass, declaringMethod);
+        final MethodEntry methodMapping = findMethodMapping(declaringClass, declaringMethod, true);
         if (methodMapping == null) {
             return;
         }
 
-        methodMapping.getParameterMapping(index).ifPresent(paramMapping -> updateIdentifier(node, paramMapping.getDeobfuscatedName()));
+        final String paramName = methodMapping.getParameterName(index);
+        if (paramName != null) {
+            updateIdentifier(node, paramName);
+        }
     }
 
     /**
@@ -324,17 +371,19 @@ private void checkLocalVariableWithMappings(
             Block body
     ) {
         final ITypeBinding declaringClass = binding.getDeclaringClass();
-        this.mappings.getClassMapping(declaringClass.getBinaryName())
-                .flatMap(classMapping -> {
-                    classMapping.complete(this.inheritanceProvider, declaringClass);
-                    return classMapping.getMethodMapping(convertSignature(binding));
-                })
-                .ifPresent(methodMapping -> {
-                    if (!methodMapping.getParameterMappings().isEmpty()) {
-                        final Set<String> newParamNames = newParamNames(declaration, methodMapping);
-                        checkLocalVariableForConflicts(node, bindingNode, blockDeclaringMethod, body, newParamNames);
-                    }
-                });
+        referenceClass(declaringClass.getBinaryName());
+        referenceMethod(binding, true);
+
+        final ClassEntry classMapping = this.mappings.getClass(declaringClass.getBinaryName());
+        if (classMapping == null) {
+            return;
+        }
+
+        final MethodEntry methodMapping = classMapping.completeMethod(convertSignature(binding), declaringClass, this.inheritanceProvider);
+        if (methodMapping != null && methodMapping.hasParameters()) {
+            final Set<String> newParamNames = newParamNames(declaration, methodMapping);
+            checkLocalVariableForConflicts(node, bindingNode, blockDeclaringMethod, body, newParamNames);
+        }
     }
 
     /**
@@ -436,7 +485,7 @@ private Set<String> collectLocalVariableNames(IMethodBinding blockDeclaringMetho
      * @param mapping The mapping to use to determine the new parameter names
      * @return The set of parameter names after remapping them with {@code mapping}.
      */
-    private Set<String> newParamNames(MethodDeclaration methodDeclaration, MethodMapping mapping) {
+    private Set<String> newParamNames(MethodDeclaration methodDeclaration, MethodEntry mapping) {
         Set<String> result = checkProperty(NEW_PARAM_NAMES_PROPERTY, methodDeclaration);
         if (result != null) {
             return result;
@@ -447,9 +496,9 @@ private Set<String> newParamNames(MethodDeclaration methodDeclaration, MethodMap
         @SuppressWarnings("unchecked")
         List<SingleVariableDeclaration> parameters = methodDeclaration.parameters();
         for (int i = 0; i < parameters.size(); i++) {
-            final Optional<MethodParameterMapping> paramMapping = mapping.getParameterMapping(i);
-            if (paramMapping.isPresent()) {
-                result.add(paramMapping.get().getDeobfuscatedName());
+            final String paramName = mapping.getParameterName(i);
+            if (paramName != null) {
+                result.add(paramName);
             } else {
                 result.add(parameters.get(i).getName().getIdentifier());
             }
@@ -489,11 +538,54 @@ protected void visit(SimpleName node, IBinding binding) {
         }
     }
 
+    /**
+     * Checks whether the binding of the given name needs to be resolved.
+     *
+     * @param node The name
+     * @return {@code true} if the name may have to be remapped
+     */
+    boolean needsBinding(SimpleName node) {
+        if (this.gate == null || this.javadocDepth > 0) {
+            // Javadoc comes before the parameters it refers to
+            return true;
+        }
+
+        String identifier = node.getIdentifier();
+        if (this.gate.contains(identifier) || this.variableNames.contains(identifier)) {
+            return true;
+        }
+
+        // Variables are always declared before they are referenced
+        if (node.isDeclaration() && node.getParent() instanceof VariableDeclaration) {
+            this.variableNames.add(identifier);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean visit(Javadoc node) {
+        this.javadocDepth++;
+        return super.visit(node);
+    }
+
+    @Override
+    public void endVisit(Javadoc node) {
+        this.javadocDepth--;
+    }
+
     @Override
     public final boolean visit(SimpleName node) {
-        IBinding binding = node.resolveBinding();
-        if (binding != null) {
-            visit(node, binding);
+        boolean resolve = needsBinding(node);
+        if (this.gate != null) {
+            this.gate.count(resolve);
+        }
+
+        if (resolve) {
+            IBinding binding = this.context.resolveBinding(node);
+            if (binding != null) {
+                visit(node, binding);
+            }
         }
         return false;
     }
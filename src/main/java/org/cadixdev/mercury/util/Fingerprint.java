@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Builds a hash over a sequence of values, used to detect whether the inputs
+ * of an incremental rewrite have changed.
+ */
+public final class Fingerprint {
+
+    private static final String ALGORITHM = "SHA-256";
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    public static Fingerprint create() {
+        return new Fingerprint();
+    }
+
+    /**
+     * Hashes the given bytes.
+     *
+     * @param bytes The bytes to hash
+     * @return The hash as hexadecimal string
+     */
+    public static String hash(byte[] bytes) {
+        return toHex(createDigest().digest(bytes));
+    }
+
+    /**
+     * Hashes the remaining bytes of the given buffer.
+     *
+     * @param bytes The bytes to hash
+     * @return The hash as hexadecimal string
+     */
+    public static String hash(ByteBuffer bytes) {
+        MessageDigest digest = createDigest();
+        digest.update(bytes);
+        return toHex(digest.digest());
+    }
+
+    private final MessageDigest digest = createDigest();
+
+    private Fingerprint() {
+    }
+
+    public Fingerprint put(String value) {
+        if (value == null) {
+            return put(-1);
+        }
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        put(bytes.length);
+        this.digest.update(bytes);
+        return this;
+    }
+
+    public Fingerprint put(long value) {
+        for (int i = 0; i < Long.BYTES; i++) {
+            this.digest.update((byte) (value >>> (i * 8)));
+        }
+        return this;
+    }
+
+    public Fingerprint put(boolean value) {
+        this.digest.update((byte) (value ? 1 : 0));
+        return this;
+    }
+
+    /**
+     * Completes the fingerprint. The instance cannot be used afterwards.
+     *
+     * @return The fingerprint as hexadecimal string
+     */
+    public String build() {
+        return toHex(this.digest.digest());
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(ALGORITHM + " is not supported", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.util;
+
+import org.eclipse.jface.text.AbstractDocument;
+import org.eclipse.jface.text.DefaultLineTracker;
+import org.eclipse.jface.text.Document;
+
+import java.nio.CharBuffer;
+import java.util.List;
+
+/**
+ * A document backed by a piece table, used to apply text edits to large
+ * source files.
+ *
+ * <p>The text store of {@link Document} copies the whole text whenever the
+ * inserted text does not fit into its gap, which happens regularly if many
+ * identifiers are renamed to longer names. Here, each edit only costs time
+ * proportional to the inserted text and the number of pieces between it and
+ * the previous edit, so applying the edits scales linearly with their
+ * number.</p>
+ */
+public final class PieceTableDocument extends AbstractDocument {
+
+    public PieceTableDocument() {
+        setTextStore(new PieceTableTextStore());
+        setLineTracker(new DefaultLineTracker());
+        completeInitialization();
+    }
+
+    public PieceTableDocument(String initialContent) {
+        this();
+        getStore().set(initialContent);
+        getTracker().set(initialContent);
+    }
+
+    /**
+     * Gets the text of the document without copying it into a single
+     * string, as a sequence of read-only buffers referring to the pieces of
+     * the text. The buffers are only valid until the document is changed.
+     *
+     * @return The pieces of the text, in order
+     */
+    public List<CharBuffer> getPieces() {
+        return ((PieceTableTextStore) getStore()).getPieces();
+    }
+
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.util;
+
+import org.eclipse.jface.text.ITextStore;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A text store that never moves the text itself: the text is described by a
+ * sequence of pieces, each referring to a range of either the original text
+ * or an append-only buffer with the inserted text.
+ *
+ * <p>The pieces are kept in a gap buffer, with the gap at the piece of the
+ * last access. Edits close to each other (like the edits of a
+ * {@link org.eclipse.text.edits.MultiTextEdit}, which are applied in order)
+ * therefore only need to move a few pieces, regardless of the size of the
+ * text.</p>
+ */
+final class PieceTableTextStore implements ITextStore {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private String original = "";
+    private final StringBuilder added = new StringBuilder();
+
+    /**
+     * The start of each piece in its buffer.
+     */
+    private int[] starts = new int[INITIAL_CAPACITY];
+    private int[] lengths = new int[INITIAL_CAPACITY];
+
+    /**
+     * Whether each piece refers to {@link #added} rather than to
+     * {@link #original}.
+     */
+    private boolean[] inserted = new boolean[INITIAL_CAPACITY];
+
+    /**
+     * The pieces before the gap are stored in {@code [0, gapStart)}, the
+     * pieces after the gap in {@code [gapEnd, capacity)}.
+     */
+    private int gapStart;
+    private int gapEnd = INITIAL_CAPACITY;
+
+    /**
+     * The text offset of the first piece after the gap.
+     */
+    private int gapOffset;
+
+    private int length;
+
+    @Override
+    public char get(int offset) {
+        moveGap(offset);
+        return charAt(this.gapEnd, offset - this.gapOffset);
+    }
+
+    @Override
+    public String get(int offset, int length) {
+        if (length == 0) {
+            return "";
+        }
+
+        moveGap(offset);
+
+        StringBuilder builder = new StringBuilder(length);
+        int skip = offset - this.gapOffset;
+        for (int i = this.gapEnd; length > 0; i++) {
+            int count = Math.min(this.lengths[i] - skip, length);
+            int start = this.starts[i] + skip;
+            if (this.inserted[i]) {
+                builder.append(this.added, start, start + count);
+            } else {
+                builder.append(this.original, start, start + count);
+            }
+
+            length -= count;
+            skip = 0;
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public int getLength() {
+        return this.length;
+    }
+
+    @Override
+    public void replace(int offset, int length, String text) {
+        moveGap(offset);
+
+        // Split the piece containing the offset, so the gap is at the offset
+        int split = offset - this.gapOffset;
+        if (split > 0) {
+            push(this.starts[this.gapEnd], split, this.inserted[this.gapEnd]);
+            // Pushing may grow the arrays, which moves the pieces after the gap
+            this.starts[this.gapEnd] += split;
+            this.lengths[this.gapEnd] -= split;
+            this.gapOffset = offset;
+        }
+
+        // Remove the replaced text after the gap
+        int remaining = length;
+        while (remaining > 0) {
+            int piece = this.gapEnd;
+            if (this.lengths[piece] <= remaining) {
+                remaining -= this.lengths[piece];
+                this.gapEnd++;
+            } else {
+                this.starts[piece] += remaining;
+                this.lengths[piece] -= remaining;
+                remaining = 0;
+            }
+        }
+
+        // Insert the new text before the gap
+        if (text != null && !text.isEmpty()) {
+            int start = this.added.length();
+            this.added.append(text);
+
+            int last = this.gapStart - 1;
+            if (last >= 0 && this.inserted[last] && this.starts[last] + this.lengths[last] == start) {
+                // Extend the previous piece instead
+                this.lengths[last] += text.length();
+            } else {
+                push(start, text.length(), true);
+            }
+            this.gapOffset += text.length();
+        }
+
+        this.length += (text != null ? text.length() : 0) - length;
+    }
+
+    @Override
+    public void set(String text) {
+        this.original = text != null ? text : "";
+        this.added.setLength(0);
+
+        this.gapStart = 0;
+        this.gapEnd = this.starts.length;
+        this.gapOffset = 0;
+        this.length = this.original.length();
+
+        if (this.length > 0) {
+            this.gapEnd--;
+            this.starts[this.gapEnd] = 0;
+            this.lengths[this.gapEnd] = this.length;
+            this.inserted[this.gapEnd] = false;
+        }
+    }
+
+    /**
+     * Gets the pieces of the text in order, as read-only buffers referring
+     * to the buffers of this store.
+     */
+    List<CharBuffer> getPieces() {
+        List<CharBuffer> pieces = new ArrayList<>(this.gapStart + this.starts.length - this.gapEnd);
+        for (int i = 0; i < this.gapStart; i++) {
+            pieces.add(getPiece(i));
+        }
+        for (int i = this.gapEnd; i < this.starts.length; i++) {
+            pieces.add(getPiece(i));
+        }
+        return pieces;
+    }
+
+    private CharBuffer getPiece(int piece) {
+        int start = this.starts[piece];
+        return CharBuffer.wrap(this.inserted[piece] ? this.added : this.original, start, start + this.lengths[piece]);
+    }
+
+    private char charAt(int piece, int index) {
+        int pos = this.starts[piece] + index;
+        return this.inserted[piece] ? this.added.charAt(pos) : this.original.charAt(pos);
+    }
+
+    /**
+     * Moves the gap before the piece containing the given offset (or to the
+     * end of the text).
+     */
+    private void moveGap(int offset) {
+        if (offset < 0 || offset > this.length) {
+            throw new IndexOutOfBoundsException("Offset " + offset + " out of bounds for length " + this.length);
+        }
+
+        while (offset < this.gapOffset) {
+            this.gapStart--;
+            this.gapEnd--;
+            move(this.gapStart, this.gapEnd);
+            this.gapOffset -= this.lengths[this.gapEnd];
+        }
+
+        while (this.gapEnd < this.starts.length && offset >= this.gapOffset + this.lengths[this.gapEnd]) {
+            this.gapOffset += this.lengths[this.gapEnd];
+            move(this.gapEnd, this.gapStart);
+            this.gapStart++;
+            this.gapEnd++;
+        }
+    }
+
+    private void move(int from, int to) {
+        this.starts[to] = this.starts[from];
+        this.lengths[to] = this.lengths[from];
+        this.inserted[to] = this.inserted[from];
+    }
+
+    /**
+     * Adds a piece before the gap. Note that this does not change the
+     * {@link #gapOffset}.
+     */
+    private void push(int start, int length, boolean inserted) {
+        if (this.gapStart == this.gapEnd) {
+            grow();
+        }
+
+        this.starts[this.gapStart] = start;
+        this.lengths[this.gapStart] = length;
+        this.inserted[this.gapStart] = inserted;
+        this.gapStart++;
+    }
+
+    private void grow() {
+        int capacity = this.starts.length * 2;
+        int after = this.starts.length - this.gapEnd;
+        int gapEnd = capacity - after;
+
+        this.starts = grow(this.starts, capacity, gapEnd);
+        this.lengths = grow(this.lengths, capacity, gapEnd);
+
+        boolean[] inserted = new boolean[capacity];
+        System.arraycopy(this.inserted, 0, inserted, 0, this.gapStart);
+        System.arraycopy(this.inserted, this.gapEnd, inserted, gapEnd, after);
+        this.inserted = inserted;
+
+        this.gapEnd = gapEnd;
+    }
+
+    private int[] grow(int[] array, int capacity, int gapEnd) {
+        int[] result = new int[capacity];
+        System.arraycopy(array, 0, result, 0, this.gapStart);
+        System.arraycopy(array, this.gapEnd, result, gapEnd, array.length - this.gapEnd);
+        return result;
+    }
+
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import org.cadixdev.bombe.analysis.InheritanceProvider.ClassInfo;
+import org.cadixdev.bombe.analysis.InheritanceType;
+import org.cadixdev.bombe.type.signature.MethodSignature;
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.mercury.ClasspathIndex;
+import org.cadixdev.mercury.Mercury;
+import org.cadixdev.mercury.SourceContext;
+import org.cadixdev.mercury.SourceProcessor;
+import org.cadixdev.mercury.analysis.ClassFileInheritanceProvider;
+import org.cadixdev.mercury.analysis.MercuryInheritanceProvider;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicReference;
+
+class ClassFileInheritanceProviderTests {
+
+    @Test
+    void readClasses() throws IOException {
+        try (final ClassFileInheritanceProvider provider = ClassFileInheritanceProvider.create(ClasspathIndex.create(Collections.emptyList()))) {
+            final ClassInfo info = provider.provide("java/util/ArrayList").orElseThrow(AssertionError::new);
+            assertEquals("java/util/ArrayList", info.getName());
+            assertFalse(info.isInterface());
+            assertEquals("java/util/AbstractList", info.getSuperName());
+            assertTrue(info.getInterfaces().contains("java/util/List"));
+            assertEquals(InheritanceType.PUBLIC, info.getMethods().get(MethodSignature.of("size", "()I")));
+            assertEquals(InheritanceType.NONE, info.getFieldsByName().get("size"));
+
+            assertTrue(provider.provide("java/util/List").orElseThrow(AssertionError::new).isInterface());
+            assertEquals("", provider.provide("java/lang/Object").orElseThrow(AssertionError::new).getSuperName());
+
+            // Classes are only read once, even if not found
+            assertSame(info, provider.provide("java.util.ArrayList").orElse(null));
+            assertFalse(provider.provide("does/not/Exist").isPresent());
+            assertFalse(provider.provide("does/not/Exist").isPresent());
+        }
+    }
+
+    @Test
+    void readOnlyJdkClassesOutsideClassPath() throws IOException {
+        try (final ClassFileInheritanceProvider provider = ClassFileInheritanceProvider.create(ClasspathIndex.create(Collections.emptyList()))) {
+            // JDK classes are found in any module, like JDT finds them
+            assertTrue(provider.provide("java/sql/Connection").orElseThrow(AssertionError::new).isInterface());
+
+            // Classes of the running JVM that are not part of the JDK are not
+            // on the class path, so they are not found
+            assertFalse(provider.provide("org/cadixdev/lorenz/MappingSet").isPresent());
+        }
+    }
+
+    @Test
+    void cacheClasses() throws Exception {
+        final Path archive = Paths.get(MappingSet.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        assumeTrue(Files.isRegularFile(archive));
+
+        final ClasspathIndex index = ClasspathIndex.create(Collections.singletonList(archive));
+        final ClassInfo expected;
+        try (final ClassFileInheritanceProvider provider = ClassFileInheritanceProvider.create(index)) {
+            expected = provider.provide("org/cadixdev/lorenz/MappingSet").orElseThrow(AssertionError::new);
+        }
+
+        // The second provider loads the classes stored by the first one
+        final Path cacheDir = Files.createTempDirectory("mercury-cache");
+        for (int i = 0; i < 2; i++) {
+            try (final ClassFileInheritanceProvider provider = ClassFileInheritanceProvider.create(index, cacheDir)) {
+                final ClassInfo info = provider.provide("org/cadixdev/lorenz/MappingSet").orElseThrow(AssertionError::new);
+                assertEquals(expected.getName(), info.getName());
+                assertEquals(expected.isInterface(), info.isInterface());
+                assertEquals(expected.getSuperName(), info.getSuperName());
+                assertEquals(expected.getInterfaces(), info.getInterfaces());
+                assertEquals(expected.getFields(), info.getFields());
+                assertEquals(expected.getMethods(), info.getMethods());
+            }
+        }
+
+        Files.walk(cacheDir)
+                .sorted(Comparator.reverseOrder())
+                .map(Path::toFile)
+                .forEach(File::delete);
+    }
+
+    @Test
+    void reuseCacheInLaterRuns() throws Exception {
+        final Path archive = Paths.get(MappingSet.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        assumeTrue(Files.isRegularFile(archive));
+
+        final Path tempDir = Files.createTempDirectory("mercury-test");
+        final Path jar = tempDir.resolve("lorenz.jar");
+        final Path cacheDir = tempDir.resolve("cache");
+        final Path sourceDir = Files.createDirectory(tempDir.resolve("src"));
+        Files.copy(archive, jar);
+
+        // Without a parser, the processors look up the classes of the class
+        // path in the class files
+        final ClassInfo expected = provideInInitialize(jar, cacheDir, sourceDir, tempDir.resolve("out1"));
+        assertEquals("org/cadixdev/lorenz/MappingSet", expected.getName());
+        assertTrue(Files.isDirectory(cacheDir.resolve("inheritance")));
+
+        // Overwrite the JAR without changing its size and modification time,
+        // so a warm run can only find the class if it does not read the JAR
+        final FileTime time = Files.getLastModifiedTime(jar);
+        Files.write(jar, new byte[(int) Files.size(jar)]);
+        Files.setLastModifiedTime(jar, time);
+
+        final ClassInfo info = provideInInitialize(jar, cacheDir, sourceDir, tempDir.resolve("out2"));
+        assertEquals(expected.getName(), info.getName());
+        assertEquals(expected.getSuperName(), info.getSuperName());
+        assertEquals(expected.getInterfaces(), info.getInterfaces());
+        assertEquals(expected.getMethods(), info.getMethods());
+
+        Files.walk(tempDir)
+                .sorted(Comparator.reverseOrder())
+                .map(Path::toFile)
+                .forEach(File::delete);
+    }
+
+    private static ClassInfo provideInInitialize(final Path jar, final Path cacheDir, final Path sourceDir, final Path outputDir) throws Exception {
+        final AtomicReference<ClassInfo> info = new AtomicReference<>();
+        final Mercury mercury = new Mercury();
+        mercury.getClassPath().add(jar);
+        mercury.setClasspathCacheDir(cacheDir);
+        mercury.getProcessors().add(new SourceProcessor() {
+            @Override
+            public void initialize(final Mercury mercury) {
+                info.set(MercuryInheritanceProvider.get(mercury).provide("org/cadixdev/lorenz/MappingSet").orElseThrow(AssertionError::new));
+            }
+
+            @Override
+            public void process(final SourceContext context) {
+            }
+        });
+        mercury.rewrite(sourceDir, outputDir);
+        return info.get();
+    }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.cadixdev.mercury.ClasspathIndex;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+class ClasspathIndexTests {
+
+    @Test
+    void reuseStoredIndex() throws Exception {
+        final Path tempDir = Files.createTempDirectory("mercury-test");
+        final Path cacheDir = tempDir.resolve("cache");
+        final Path jar = tempDir.resolve("test.jar");
+        final Path other = tempDir.resolve("other.jar");
+        final List<Path> classPath = Arrays.asList(jar, other);
+
+        writeJar(jar, "a/A");
+        writeJar(other, "a/A", "b/B");
+        final long size = Files.size(jar);
+        final FileTime time = Files.getLastModifiedTime(jar);
+
+        ClasspathIndex index = ClasspathIndex.load(classPath, cacheDir);
+        assertEquals(jar, index.findEntry("a/A"));
+        assertEquals(other, index.findEntry("b/B"));
+        // JDT is only given the entries that provide any classes
+        assertEquals(classPath, index.getEntries());
+
+        // Replace the JAR without changing its size and modification time,
+        // so only a reused index still contains the old class
+        writeJar(jar, "a/C");
+        Files.setLastModifiedTime(jar, time);
+        assertEquals(size, Files.size(jar));
+        index = ClasspathIndex.load(classPath, cacheDir);
+        assertEquals(jar, index.findEntry("a/A"));
+        assertNull(index.findEntry("a/C"));
+
+        // A different modification time invalidates the stored index
+        final FileTime modified = FileTime.fromMillis(time.toMillis() + 2000);
+        Files.setLastModifiedTime(jar, modified);
+        index = ClasspathIndex.load(classPath, cacheDir);
+        assertEquals(other, index.findEntry("a/A"));
+        assertEquals(jar, index.findEntry("a/C"));
+
+        // As does a different size
+        writeJar(jar, "a/C", "a/D");
+        Files.setLastModifiedTime(jar, modified);
+        index = ClasspathIndex.load(classPath, cacheDir);
+        assertEquals(jar, index.findEntry("a/D"));
+
+        // Entries that only contain shadowed classes are pruned
+        writeJar(jar, "a/A", "b/B");
+        index = ClasspathIndex.load(classPath, cacheDir);
+        assertEquals(Collections.singletonList(jar), index.getEntries());
+
+        Files.walk(tempDir)
+                .sorted(Comparator.reverseOrder())
+                .map(Path::toFile)
+                .forEach(File::delete);
+    }
+
+    private static void writeJar(final Path jar, final String... classes) throws IOException {
+        try (final ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))) {
+            for (final String name : classes) {
+                final ZipEntry entry = new ZipEntry(name + ".class");
+                entry.setTime(1_000_000_000_000L);
+                out.putNextEntry(entry);
+                out.closeEntry();
+            }
+        }
+    }
+
+}
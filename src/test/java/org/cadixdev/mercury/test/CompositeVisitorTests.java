@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.cadixdev.mercury.Mercury;
+import org.cadixdev.mercury.SourceContext;
+import org.cadixdev.mercury.SourceProcessor;
+import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.ASTVisitor;
+import org.eclipse.jdt.core.dom.Block;
+import org.eclipse.jdt.core.dom.FieldDeclaration;
+import org.eclipse.jdt.core.dom.MethodDeclaration;
+import org.eclipse.jdt.core.dom.TypeDeclaration;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Supplier;
+
+class CompositeVisitorTests {
+
+    private static final String SOURCE = "package test;\n"
+            + "\n"
+            + "public class Test {\n"
+            + "    private int field;\n"
+            + "\n"
+            + "    public void method() {\n"
+            + "        int local = this.field;\n"
+            + "        new Object() {\n"
+            + "            void inner() {\n"
+            + "                System.out.println(local);\n"
+            + "            }\n"
+            + "        };\n"
+            + "    }\n"
+            + "}\n";
+
+    @Test
+    void visitLikeSeparateTraversals() throws Exception {
+        final Path tempDir = Files.createTempDirectory("mercury-test");
+        final Path sourceFile = tempDir.resolve("test").resolve("Test.java");
+        Files.createDirectories(sourceFile.getParent());
+        Files.write(sourceFile, SOURCE.getBytes(StandardCharsets.UTF_8));
+
+        // The first visitor declines blocks and fields in preVisit2, the
+        // second skips the children of methods and blocks, so neither of
+        // them visits the children of a block
+        final RecordingProcessor first = new RecordingProcessor(() -> new RecordingVisitor() {
+            @Override
+            public boolean preVisit2(ASTNode node) {
+                super.preVisit2(node);
+                return !(node instanceof Block) && !(node instanceof FieldDeclaration);
+            }
+        });
+        final RecordingProcessor second = new RecordingProcessor(() -> new RecordingVisitor() {
+            @Override
+            public boolean visit(MethodDeclaration node) {
+                super.visit(node);
+                return false;
+            }
+
+            @Override
+            public boolean visit(Block node) {
+                super.visit(node);
+                return false;
+            }
+        });
+
+        final Mercury mercury = new Mercury();
+        mercury.getProcessors().add(first);
+        mercury.getProcessors().add(second);
+        mercury.process(tempDir);
+
+        for (final RecordingProcessor processor : new RecordingProcessor[] { first, second }) {
+            assertEquals(1, processor.expected.size());
+            assertEquals(processor.expected.get(0), processor.actual.get(0).events);
+        }
+
+        // Every node gets exactly one postVisit, even if it was declined
+        final List<String> events = first.actual.get(0).events;
+        assertEquals(count(events, "preVisit2"), count(events, "postVisit"));
+        assertTrue(count(events, "preVisit2 Block") > 0);
+        assertEquals(0, count(events, "endVisit Block"));
+
+        Files.walk(tempDir)
+                .sorted(Comparator.reverseOrder())
+                .map(Path::toFile)
+                .forEach(File::delete);
+    }
+
+    private static long count(final List<String> events, final String prefix) {
+        return events.stream().filter(event -> event.startsWith(prefix)).count();
+    }
+
+    /**
+     * Records the events of the visitors traversing the compilation unit
+     * together, and of a visitor traversing it separately.
+     */
+    private static final class RecordingProcessor implements SourceProcessor {
+
+        private final Supplier<RecordingVisitor> factory;
+        private final List<List<String>> expected = new ArrayList<>();
+        private final List<RecordingVisitor> actual = new ArrayList<>();
+
+        private RecordingProcessor(final Supplier<RecordingVisitor> factory) {
+            this.factory = factory;
+        }
+
+        @Override
+        public ASTVisitor createVisitor(final SourceContext context) {
+            final RecordingVisitor separate = this.factory.get();
+            context.getCompilationUnit().accept(separate);
+            this.expected.add(separate.events);
+
+            final RecordingVisitor visitor = this.factory.get();
+            this.actual.add(visitor);
+            return visitor;
+        }
+
+        @Override
+        public void process(final SourceContext context) {
+            context.getCompilationUnit().accept(this.createVisitor(context));
+        }
+
+    }
+
+    private static class RecordingVisitor extends ASTVisitor {
+
+        private final List<String> events = new ArrayList<>();
+
+        private void record(final String event, final ASTNode node) {
+            this.events.add(event + ' ' + node.getClass().getSimpleName() + '@' + node.getStartPosition());
+        }
+
+        @Override
+        public boolean preVisit2(ASTNode node) {
+            this.record("preVisit2", node);
+            return true;
+        }
+
+        @Override
+        public void postVisit(ASTNode node) {
+            this.record("postVisit", node);
+        }
+
+        @Override
+        public boolean visit(TypeDeclaration node) {
+            this.record("visit", node);
+            return true;
+        }
+
+        @Override
+        public void endVisit(TypeDeclaration node) {
+            this.record("endVisit", node);
+        }
+
+        @Override
+        public boolean visit(MethodDeclaration node) {
+            this.record("visit", node);
+            return true;
+        }
+
+        @Override
+        public void endVisit(MethodDeclaration node) {
+            this.record("endVisit", node);
+        }
+
+        @Override
+        public boolean visit(Block node) {
+            this.record("visit", node);
+            return true;
+        }
+
+        @Override
+        public void endVisit(Block node) {
+            this.record("endVisit", node);
+        }
+
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.cadixdev.mercury.util.PieceTableDocument;
+import org.eclipse.jface.text.Document;
+import org.eclipse.text.edits.MultiTextEdit;
+import org.eclipse.text.edits.ReplaceEdit;
+import org.eclipse.text.edits.TextEdit;
+import org.junit.jupiter.api.Test;
+
+import java.nio.CharBuffer;
+import java.util.Random;
+
+class PieceTableDocumentTests {
+
+    @Test
+    void replaceRandomly() throws Exception {
+        final Random random = new Random(0);
+        final String text = createText(random, 5000);
+
+        final Document expected = new Document(text);
+        final PieceTableDocument actual = new PieceTableDocument(text);
+
+        for (int i = 0; i < 10000; i++) {
+            final int offset = random.nextInt(expected.getLength() + 1);
+            final int length = random.nextInt(Math.min(20, expected.getLength() - offset) + 1);
+            final String replacement = createText(random, random.nextInt(20));
+
+            expected.replace(offset, length, replacement);
+            actual.replace(offset, length, replacement);
+            assertEquals(expected.getLength(), actual.getLength());
+
+            final int start = random.nextInt(expected.getLength() + 1);
+            final int end = start + random.nextInt(expected.getLength() - start + 1);
+            assertEquals(expected.get(start, end - start), actual.get(start, end - start));
+            if (start < expected.getLength()) {
+                assertEquals(expected.getChar(start), actual.getChar(start));
+            }
+        }
+
+        assertEquals(expected.get(), actual.get());
+        assertEquals(expected.getNumberOfLines(), actual.getNumberOfLines());
+    }
+
+    @Test
+    void applyEdits() throws Exception {
+        final Random random = new Random(1);
+        final String text = createText(random, 100000);
+
+        final Document expected = new Document(text);
+        final PieceTableDocument actual = new PieceTableDocument(text);
+        createEdit(random, text, 10000).apply(expected, TextEdit.NONE);
+        createEdit(new Random(1), text, 10000).apply(actual, TextEdit.NONE);
+
+        assertEquals(expected.get(), actual.get());
+        assertEquals(expected.get(), joinPieces(actual));
+    }
+
+    private static String joinPieces(final PieceTableDocument document) {
+        final StringBuilder builder = new StringBuilder(document.getLength());
+        for (final CharBuffer piece : document.getPieces()) {
+            builder.append(piece);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Creates non-overlapping edits that replace short ranges of the text with
+     * longer text, like renaming obfuscated identifiers.
+     */
+    private static TextEdit createEdit(final Random random, final String text, final int edits) {
+        final MultiTextEdit edit = new MultiTextEdit();
+        final int step = text.length() / edits;
+        for (int i = 0; i < edits; i++) {
+            final int offset = i * step + random.nextInt(step / 2);
+            edit.addChild(new ReplaceEdit(offset, 1 + random.nextInt(2), "remapped" + i));
+        }
+        return edit;
+    }
+
+    private static String createText(final Random random, final int length) {
+        final StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append(random.nextInt(40) == 0 ? '\n' : (char) ('a' + random.nextInt(26)));
+        }
+        return builder.toString();
+    }
+
+}
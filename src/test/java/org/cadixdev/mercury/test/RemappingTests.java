@@ -10,26 +10,74 @@
 
 package org.cadixdev.mercury.test;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
+import org.cadixdev.at.AccessChange;
+import org.cadixdev.at.AccessTransform;
+import org.cadixdev.at.AccessTransformSet;
+import org.cadixdev.at.ModifierChange;
+import org.cadixdev.bombe.type.signature.MethodSignature;
 import org.cadixdev.bombe.util.ByteStreams;
 import org.cadixdev.lorenz.MappingSet;
 import org.cadixdev.lorenz.io.MappingFormats;
 import org.cadixdev.lorenz.io.MappingsReader;
+import org.cadixdev.lorenz.model.ClassMapping;
+import org.cadixdev.mercury.CopyStrategy;
 import org.cadixdev.mercury.Mercury;
+import org.cadixdev.mercury.OutputSink;
+import org.cadixdev.mercury.SourceContext;
+import org.cadixdev.mercury.SourceProcessor;
+import org.cadixdev.mercury.SourceRewriter;
+import org.cadixdev.mercury.SourceSummary;
+import org.cadixdev.mercury.at.AccessTransformerRewriter;
+import org.cadixdev.mercury.remapper.MappingIndex;
+import org.cadixdev.mercury.remapper.MappingSnapshot;
 import org.cadixdev.mercury.remapper.MercuryRemapper;
 import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.dom.ASTVisitor;
+import org.eclipse.jdt.core.dom.AbstractTypeDeclaration;
+import org.eclipse.jdt.core.dom.ITypeBinding;
+import org.eclipse.jdt.core.dom.SimpleName;
+import org.eclipse.text.edits.ReplaceEdit;
 import org.junit.jupiter.api.Test;
 
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 class RemappingTests {
 
@@ -60,11 +108,759 @@ class RemappingTests {
 
     @Test
     void remap() throws Exception {
+        this.remap(mercury -> {});
+    }
+
+    @Test
+    void remapConcurrently() throws Exception {
+        // Only the thread-safe processors are used concurrently
+        final MappingIndex mappings = MappingIndex.freeze(this.loadMappings());
+        final Set<String> threads = ConcurrentHashMap.newKeySet();
+        final Mercury mercury = this.remap(m -> {
+            m.setThreads(4);
+            m.getProcessors().set(0, MercuryRemapper.create(mappings));
+            m.getProcessors().add(AccessTransformerRewriter.create(AccessTransformSet.create()));
+            m.getProcessors().add(context -> threads.add(Thread.currentThread().getName()));
+        });
+
+        // The source files are split into one batch per thread, each parsed
+        // and processed on its own worker thread
+        assertEquals(4, mercury.getParsedBatches());
+        assertEquals(new HashSet<>(Arrays.asList("mercury-worker-1", "mercury-worker-2", "mercury-worker-3", "mercury-worker-4")), threads);
+    }
+
+    @Test
+    void remapInBatches() throws Exception {
+        // Each batch is parsed by its own parser, which has its own binding context
+        final List<Map<Object, Object>> batches = new ArrayList<>();
+        final List<Integer> sizes = new ArrayList<>();
+        final List<Boolean> released = new ArrayList<>();
+        final Mercury mercury = this.remap(m -> {
+            m.setBatchSize(3);
+            m.getProcessors().add(context -> {
+                final Map<Object, Object> bindingContext = context.getMercury().getBindingContext();
+                final int last = batches.size() - 1;
+                if (last < 0 || batches.get(last) != bindingContext) {
+                    // Everything the previous batch cached is gone before the next one is parsed
+                    if (last >= 0) {
+                        released.add(batches.get(last).isEmpty());
+                    }
+                    batches.add(bindingContext);
+                    sizes.add(0);
+                }
+                bindingContext.put(RemappingTests.class, context.getSourceFile());
+                sizes.set(sizes.size() - 1, sizes.get(sizes.size() - 1) + 1);
+            });
+        });
+
+        assertEquals(4, mercury.getParsedBatches());
+        assertEquals(Arrays.asList(3, 3, 3, 2), sizes);
+        assertEquals(Arrays.asList(true, true, true), released);
+
+        // Including the last batch, once the rewrite is done
+        for (final Map<Object, Object> bindingContext : batches) {
+            assertTrue(bindingContext.isEmpty(), "A batch was not released");
+        }
+    }
+
+    @Test
+    void remapFiltered() throws Exception {
+        // Source files that are not relevant to any processor are not parsed
+        final Set<String> processed = ConcurrentHashMap.newKeySet();
+        final Mercury mercury = this.remap(m -> {
+            m.setSourceFiltering(true);
+            m.getProcessors().add(new SourceProcessor() {
+                @Override
+                public boolean isRelevant(final SourceSummary summary) {
+                    return false;
+                }
+
+                @Override
+                public void process(final SourceContext context) {
+                    processed.add(context.getQualifiedPrimaryType());
+                }
+            });
+        });
+
+        assertEquals(9, processed.size());
+        assertFalse(processed.contains("test.test.Javadocs"), "Javadocs.java was parsed");
+        assertFalse(processed.contains("NonNull"), "NonNull.java was parsed");
+        assertEquals(1, mercury.getParsedBatches());
+    }
+
+    @Test
+    void remapMemoryMapped() throws Exception {
+        // The documents have the content of the mapped source files, decoded
+        // in the source encoding
+        final List<String> mismatched = Collections.synchronizedList(new ArrayList<>());
+        this.remap(mercury -> {
+            mercury.setBatchSize(3);
+            mercury.setMemoryMappedSources(true);
+            mercury.getProcessors().add(context -> {
+                final String source = new String(Files.readAllBytes(context.getSourceFile()), StandardCharsets.UTF_8);
+                if (!source.equals(context.loadDocument().get())) {
+                    mismatched.add(context.getQualifiedPrimaryType());
+                }
+            });
+        });
+        assertEquals(Collections.emptyList(), mismatched);
+    }
+
+    @Test
+    void remapDirectPatching() throws Exception {
+        final Set<String> rewritten = this.collectASTRewrites(false);
+        final Set<String> patched = this.collectASTRewrites(true);
+
+        // Files that only rename identifiers are patched without an ASTRewrite,
+        // and the output is the same either way
+        assertTrue(rewritten.containsAll(patched));
+        assertTrue(patched.size() < rewritten.size(), "No file was patched directly");
+    }
+
+    @Test
+    void remapResolvesCandidateNames() throws Exception {
+        final Path tempDir = Files.createTempDirectory("mercury-test");
+        final Path in = tempDir.resolve("a");
+        final Path out = tempDir.resolve("b");
+        this.copyAll(in);
+
+        // Names that cannot refer to any mapping are not resolved
+        final MercuryRemapper remapper = (MercuryRemapper) MercuryRemapper.create(this.loadMappings());
+        this.run(in, out, mercury -> mercury.getProcessors().set(0, remapper));
+        assertTrue(remapper.getResolvedNames() > 0, "No names were resolved");
+        assertTrue(remapper.getResolvedNames() < remapper.getVisitedNames(), "All names were resolved");
+        this.verifyAll(out);
+
+        this.delete(tempDir);
+    }
+
+    @Test
+    void copyFilesWithNoOpEdits() throws Exception {
+        final Path tempDir = Files.createTempDirectory("mercury-test");
+        final Path in = tempDir.resolve("a");
+        final Path out = tempDir.resolve("b");
+        this.copyAll(in);
+
+        // Renaming a type to its own name (patched directly, or through the
+        // ASTRewrite together with an edit reproducing the original text)
+        // does not change the file, so it is copied
+        for (final boolean directPatching : new boolean[] { true, false }) {
+            final Mercury mercury = this.run(in, out, m -> {
+                m.setDirectPatching(directPatching);
+                m.getProcessors().set(0, (SourceRewriter) context -> {
+                    final SimpleName name = ((AbstractTypeDeclaration) context.getCompilationUnit().types().get(0)).getName();
+                    context.renameIdentifier(name, name.getIdentifier());
+                    if (!directPatching) {
+                        final String source = context.loadDocument().get();
+                        context.addEdit(new ReplaceEdit(source.length() - 1, 1, source.substring(source.length() - 1)));
+                    }
+                });
+            });
+            assertEquals(0, mercury.getRewrittenFiles());
+            assertEquals(11, mercury.getCopiedFiles());
+        }
+
+        this.delete(tempDir);
+    }
+
+    @Test
+    void remapWithOutputThreads() throws Exception {
+        final Path tempDir = Files.createTempDirectory("mercury-test");
+        final Path in = tempDir.resolve("a");
+        final Path archive = tempDir.resolve("b.jar");
+        this.copyAll(in);
+
+        // The output files are written by the writer threads, not by the
+        // threads processing the source files
+        final Set<String> threads = ConcurrentHashMap.newKeySet();
+        final OutputSink sink = OutputSink.archive(archive);
+        final Mercury mercury = this.create(m -> {
+            m.setThreads(2);
+            m.setOutputThreads(2);
+        });
+        mercury.rewrite(in, new OutputSink() {
+            @Override
+            public void write(final String path, final ByteBuffer content) throws IOException {
+                threads.add(Thread.currentThread().getName());
+                sink.write(path, content);
+            }
+
+            @Override
+            public void copy(final Path sourceFile, final String path) throws IOException {
+                threads.add(Thread.currentThread().getName());
+                sink.copy(sourceFile, path);
+            }
+
+            @Override
+            public void close() throws IOException {
+                sink.close();
+            }
+
+            @Override
+            public void abort() {
+                sink.abort();
+            }
+        });
+        this.verifyCounts(mercury);
+        assertFalse(threads.isEmpty());
+        assertTrue(threads.stream().allMatch(name -> name.startsWith("mercury-writer-")), threads.toString());
+
+        try (final FileSystem fs = FileSystems.newFileSystem(archive, (ClassLoader) null)) {
+            this.verifyAll(fs.getPath("/"));
+            this.verifyCopied(in, fs.getPath("/"));
+        }
+
+        this.delete(tempDir);
+    }
+
+    @Test
+    void remapWithAccessTransformer() throws Exception {
+        // All processors visit each compilation unit in a single traversal,
+        // so consecutive visitors see each node in turn
+        final List<String> visits = new ArrayList<>();
+        this.remap(mercury -> {
+            mercury.getProcessors().add(AccessTransformerRewriter.create(AccessTransformSet.create()));
+            mercury.getProcessors().add(recordNames(visits, "a"));
+            mercury.getProcessors().add(recordNames(visits, "b"));
+        });
+
+        assertFalse(visits.isEmpty());
+        for (int i = 0; i < visits.size(); i += 2) {
+            final String name = visits.get(i).substring(2);
+            assertEquals("a:" + name, visits.get(i));
+            assertEquals("b:" + name, visits.get(i + 1));
+        }
+    }
+
+    @Test
+    void remapWithAccessTransformerInAnonymousClass() throws Exception {
+        final Path tempDir = Files.createTempDirectory("mercury-test");
+        final Path in = tempDir.resolve("a");
+        final Path out = tempDir.resolve("b");
+        Files.createDirectories(in.resolve("at"));
+        Files.write(in.resolve("at/Base.java"), Arrays.asList(
+                "package at;",
+                "",
+                "public class Base {",
+                "    protected void run() {",
+                "    }",
+                "}"
+        ));
+        Files.write(in.resolve("at/User.java"), Arrays.asList(
+                "package at;",
+                "",
+                "public class User {",
+                "    void test() {",
+                "        new Base() {",
+                "            @Override",
+                "            protected void run() {",
+                "            }",
+                "        };",
+                "    }",
+                "}"
+        ));
+
+        // The method is overridden in an anonymous class, inside a method body
+        final AccessTransformSet ats = AccessTransformSet.create();
+        ats.getOrCreateClass("at.Base").mergeMethod(MethodSignature.of("run", "()V"),
+                AccessTransform.of(AccessChange.PUBLIC, ModifierChange.NONE));
+        this.run(in, out, mercury -> mercury.getProcessors().set(0, AccessTransformerRewriter.create(ats)));
+
+        assertTrue(new String(Files.readAllBytes(out.resolve("at/Base.java"))).contains("    public void run() {"));
+        assertTrue(new String(Files.readAllBytes(out.resolve("at/User.java"))).contains("            public void run() {"));
+
+        this.delete(tempDir);
+    }
+
+    @Test
+    void applyConstructorAccessTransformerToDeclarationsOnly() throws Exception {
+        final Path tempDir = Files.createTempDirectory("mercury-test");
+        final Path in = tempDir.resolve("a");
+        final Path out = tempDir.resolve("b");
+        Files.createDirectories(in.resolve("at"));
+        Files.write(in.resolve("at/Base.java"), Arrays.asList(
+                "package at;",
+                "",
+                "public class Base {",
+                "    private Base() {",
+                "    }",
+                "",
+                "    protected void run() {",
+                "    }",
+                "}"
+        ));
+
+        // Constructors are not inherited, so method bodies can be skipped
+        final AccessTransformSet ats = AccessTransformSet.create();
+        ats.getOrCreateClass("at.Base").mergeMethod(MethodSignature.of("<init>", "()V"),
+                AccessTransform.of(AccessChange.PUBLIC, ModifierChange.NONE));
+        final SourceRewriter rewriter = AccessTransformerRewriter.create(ats);
+        assertTrue((rewriter.getFlags() & SourceProcessor.FLAG_DECLARATIONS_ONLY) != 0);
+
+        this.run(in, out, mercury -> mercury.getProcessors().set(0, rewriter));
+        assertTrue(new String(Files.readAllBytes(out.resolve("at/Base.java"))).contains("    public Base() {"));
+
+        // Other methods may be overridden in anonymous classes inside method bodies
+        ats.getOrCreateClass("at.Base").mergeMethod(MethodSignature.of("run", "()V"),
+                AccessTransform.of(AccessChange.PUBLIC, ModifierChange.NONE));
+        assertFalse((rewriter.getFlags() & SourceProcessor.FLAG_DECLARATIONS_ONLY) != 0);
+
+        this.delete(tempDir);
+    }
+
+    @Test
+    void remapWithoutJavadoc() throws Exception {
+        final Path tempDir = Files.createTempDirectory("mercury-test");
+        final Path in = tempDir.resolve("a");
+        final Path out = tempDir.resolve("b");
+        this.copyAll(in);
+
+        // Javadoc is only parsed if a processor needs it
+        final MappingSet mappings = this.loadMappings();
+        final Mercury mercury = this.run(in, out, m -> m.getProcessors().set(0, MercuryRemapper.create(mappings, false)));
+        assertEquals(JavaCore.DISABLED, mercury.getCompilerOptions().get(JavaCore.COMPILER_DOC_COMMENT_SUPPORT));
+        assertEquals("", mercury.getCompilerOptions().get(JavaCore.COMPILER_TASK_TAGS));
+        this.verify(out, "anon/Anon.java");
+
+        // The code is remapped, but the references in Javadoc are kept
+        final String javadocTest = new String(Files.readAllBytes(out.resolve("JavadocTest.java")), StandardCharsets.UTF_8);
+        assertTrue(javadocTest.contains("private final Core core = new Core();"));
+        assertTrue(javadocTest.contains("{@link ObfClass core}"));
+        assertTrue(javadocTest.contains("@see ObfClass#name()"));
+
+        // Javadoc is parsed again once a processor needs it
+        final Mercury withJavadoc = this.run(in, out, m -> {});
+        assertEquals(JavaCore.ENABLED, withJavadoc.getCompilerOptions().get(JavaCore.COMPILER_DOC_COMMENT_SUPPORT));
+        this.verify(out, "JavadocTest.java");
+
+        this.delete(tempDir);
+    }
+
+    @Test
+    void remapFrozen() throws Exception {
+        final MappingSet mappingSet = this.loadMappings();
+        final long methods = countMethods(mappingSet.getTopLevelClassMappings());
+        final MappingIndex mappings = MappingIndex.freeze(mappingSet);
+
+        // A single index is shared by the parsers of all batches, which
+        // complete the inherited methods without changing it
+        final Mercury mercury = this.remap(m -> {
+            m.setThreads(4);
+            m.setBatchSize(1);
+            m.getProcessors().set(0, MercuryRemapper.create(mappings));
+        });
+        assertEquals(11, mercury.getParsedBatches());
+        assertEquals(methods, countMethods(mappingSet.getTopLevelClassMappings()));
+        assertEquals(MappingIndex.freeze(this.loadMappings()).getObfuscatedNames(), mappings.getObfuscatedNames());
+    }
+
+    @Test
+    void remapInheritedMethodsLikeLorenz() throws Exception {
+        final Path tempDir = Files.createTempDirectory("mercury-test");
+        final Path in = tempDir.resolve("a");
+        Files.createDirectories(in.resolve("inherit/base"));
+        Files.write(in.resolve("inherit/Parent.java"), Arrays.asList(
+                "package inherit;",
+                "",
+                "public class Parent {",
+                "    public void m() {",
+                "    }",
+                "}"
+        ));
+        Files.write(in.resolve("inherit/Iface.java"), Arrays.asList(
+                "package inherit;",
+                "",
+                "public interface Iface {",
+                "    void m();",
+                "}"
+        ));
+        Files.write(in.resolve("inherit/Child.java"), Arrays.asList(
+                "package inherit;",
+                "",
+                "public class Child extends Parent implements Iface {",
+                "    @Override",
+                "    public void m() {",
+                "    }",
+                "",
+                "    void call(Child child) {",
+                "        child.m();",
+                "    }",
+                "}"
+        ));
+        Files.write(in.resolve("inherit/base/Base.java"), Arrays.asList(
+                "package inherit.base;",
+                "",
+                "public class Base {",
+                "    void n() {",
+                "    }",
+                "}"
+        ));
+        Files.write(in.resolve("inherit/base/Middle.java"), Arrays.asList(
+                "package inherit.base;",
+                "",
+                "public class Middle extends Base {",
+                "    @Override",
+                "    public void n() {",
+                "    }",
+                "}"
+        ));
+        Files.write(in.resolve("inherit/Leaf.java"), Arrays.asList(
+                "package inherit;",
+                "",
+                "public class Leaf extends inherit.base.Middle {",
+                "    @Override",
+                "    public void n() {",
+                "    }",
+                "}"
+        ));
+
+        // The super class and the interface map the same method differently,
+        // and the package-private mapping is only visible through Middle
+        final Consumer<MappingSet> mappings = m -> {
+            m.getOrCreateClassMapping("inherit/Parent").getOrCreateMethodMapping("m", "()V").setDeobfuscatedName("parentM");
+            m.getOrCreateClassMapping("inherit/Iface").getOrCreateMethodMapping("m", "()V").setDeobfuscatedName("ifaceM");
+            m.getOrCreateClassMapping("inherit/base/Base").getOrCreateMethodMapping("n", "()V").setDeobfuscatedName("baseN");
+        };
+
+        // A single thread completes the mapping set, multiple threads use a frozen copy
+        final List<String> files = Arrays.asList("inherit/Child.java", "inherit/Leaf.java", "inherit/base/Middle.java");
+        final Map<Integer, List<String>> outputs = new HashMap<>();
+        for (final int threads : new int[] { 1, 4 }) {
+            final Path out = tempDir.resolve("threads" + threads);
+            final MappingSet mappingSet = MappingSet.create();
+            mappings.accept(mappingSet);
+            this.run(in, out, mercury -> {
+                mercury.setThreads(threads);
+                mercury.getProcessors().set(0, MercuryRemapper.create(mappingSet));
+            });
+
+            final List<String> output = new ArrayList<>();
+            for (final String file : files) {
+                output.add(new String(Files.readAllBytes(out.resolve(file)), StandardCharsets.UTF_8));
+            }
+            outputs.put(threads, output);
+        }
+
+        assertEquals(outputs.get(1), outputs.get(4));
+        final List<String> output = outputs.get(4);
+        assertTrue(output.get(0).contains("public void parentM()"));
+        assertTrue(output.get(0).contains("child.parentM();"));
+        assertTrue(output.get(1).contains("public void baseN()"));
+        assertTrue(output.get(2).contains("public void baseN()"));
+
+        this.delete(tempDir);
+    }
+
+    @Test
+    void remapConcurrentlyWithMappingSet() throws Exception {
+        final MappingSet mappings = this.loadMappings();
+        final long methods = countMethods(mappings.getTopLevelClassMappings());
+        this.remap(mercury -> {
+            mercury.setThreads(4);
+            mercury.getProcessors().set(0, MercuryRemapper.create(mappings));
+        });
+
+        // The remapper uses a frozen copy, so the mappings are not completed
+        assertEquals(methods, countMethods(mappings.getTopLevelClassMappings()));
+    }
+
+    @Test
+    void remapSnapshot() throws Exception {
+        final Path snapshot = Files.createTempFile("mercury-test", ".snapshot");
+        // The snapshot stays mapped until it is garbage collected
+        snapshot.toFile().deleteOnExit();
+        MappingSnapshot.write(this.loadMappings(), snapshot);
+
+        final MappingIndex mappings = MappingSnapshot.open(snapshot);
+        assertEquals(MappingIndex.freeze(this.loadMappings()).getObfuscatedNames(), mappings.getObfuscatedNames());
+        this.remap(mercury -> {
+            mercury.setThreads(4);
+            mercury.getProcessors().set(0, MercuryRemapper.create(mappings));
+        });
+    }
+
+    @Test
+    void remapWithCopyStrategies() throws Exception {
+        final Path tempDir = Files.createTempDirectory("mercury-test");
+        final Path in = tempDir.resolve("a");
+        this.copyAll(in);
+
+        final Path unchanged = in.resolve("test/test/Javadocs.java");
+        for (final CopyStrategy strategy : CopyStrategy.values()) {
+            final Path out = tempDir.resolve(strategy.name());
+            final Mercury mercury = this.run(in, out, m -> m.setCopyStrategy(strategy));
+            this.verifyCounts(mercury);
+            this.verifyAll(out);
+            this.verifyCopied(in, out);
+
+            // Only linked output files share their content with the source files
+            assertEquals(strategy == CopyStrategy.LINK, Files.isSameFile(unchanged, out.resolve("test/test/Javadocs.java")), strategy.name());
+        }
+
+        // Identical output files are not written again, but different ones are replaced
+        final Path out = tempDir.resolve(CopyStrategy.COPY.name());
+        final FileTime time = FileTime.fromMillis(0);
+        Files.setLastModifiedTime(out.resolve("test/test/Javadocs.java"), time);
+        Files.write(out.resolve("NonNull.java"), Collections.singletonList("// Outdated"));
+        Files.setLastModifiedTime(out.resolve("NonNull.java"), time);
+
+        this.run(in, out, m -> m.setSkipIdenticalOutput(true));
+        assertEquals(time, Files.getLastModifiedTime(out.resolve("test/test/Javadocs.java")));
+        assertFalse(time.equals(Files.getLastModifiedTime(out.resolve("NonNull.java"))), "NonNull.java was not written");
+        this.verifyCopied(in, out);
+
+        // The source files must not have been modified through the linked output files
+        final Path verifyOut = tempDir.resolve("c");
+        this.run(in, verifyOut, mercury -> {});
+        this.verifyAll(verifyOut);
+
+        this.delete(tempDir);
+    }
+
+    @Test
+    void remapInPlaceWithCopyStrategies() throws Exception {
+        final Path tempDir = Files.createTempDirectory("mercury-test");
+        for (final CopyStrategy strategy : CopyStrategy.values()) {
+            final Path dir = tempDir.resolve(strategy.name());
+            this.copyAll(dir);
+            final byte[] unchanged = Files.readAllBytes(dir.resolve("test/test/Javadocs.java"));
+
+            // The unchanged output files are the source files themselves,
+            // so they must not be replaced
+            this.run(dir, dir, m -> m.setCopyStrategy(strategy));
+            assertArrayEquals(unchanged, Files.readAllBytes(dir.resolve("test/test/Javadocs.java")), strategy.name());
+        }
+
+        this.delete(tempDir);
+    }
+
+    @Test
+    void remapSkipsIdenticalOutput() throws Exception {
+        final Path tempDir = Files.createTempDirectory("mercury-test");
+        final Path in = tempDir.resolve("a");
+        final Path out = tempDir.resolve("b");
+        this.copyAll(in);
+
+        final Consumer<Mercury> configure = mercury -> mercury.setSkipIdenticalOutput(true);
+        this.run(in, out, configure);
+
+        final FileTime time = FileTime.fromMillis(0);
+        final Path core = out.resolve("Core.java");
+        final Path unchanged = out.resolve("test/test/Javadocs.java");
+        Files.setLastModifiedTime(core, time);
+        Files.setLastModifiedTime(unchanged, time);
+
+        // Neither the rewritten nor the copied files are written again
+        this.run(in, out, configure);
+        assertEquals(time, Files.getLastModifiedTime(core));
+        assertEquals(time, Files.getLastModifiedTime(unchanged));
+        this.verifyAll(out);
+
+        this.delete(tempDir);
+    }
+
+    @Test
+    void remapIntoArchive() throws Exception {
+        final Path tempDir = Files.createTempDirectory("mercury-test");
+        final Path in = tempDir.resolve("a");
+        final Path archive = tempDir.resolve("b.jar");
+        this.copyAll(in);
+
+        final Mercury mercury = this.create(m -> m.setThreads(4));
+        mercury.rewrite(in, OutputSink.archive(archive));
+        this.verifyCounts(mercury);
+
+        try (final FileSystem fs = FileSystems.newFileSystem(archive, (ClassLoader) null)) {
+            this.verifyAll(fs.getPath("/"));
+            this.verifyCopied(in, fs.getPath("/"));
+        }
+
+        // The entries are listed in a stable order, regardless of the threads
+        try (final ZipFile zip = new ZipFile(archive.toFile())) {
+            final List<String> names = zip.stream().map(ZipEntry::getName).collect(Collectors.toList());
+            final List<String> sorted = new ArrayList<>(names);
+            Collections.sort(sorted);
+            assertEquals(11, names.size());
+            assertEquals(sorted, names);
+        }
+
+        this.delete(tempDir);
+    }
+
+    @Test
+    void remapWithClasspathCache() throws Exception {
+        final Path archive = Paths.get(MappingSet.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        assumeTrue(Files.isRegularFile(archive));
+
+        final Path cacheDir = Files.createTempDirectory("mercury-cache");
+        final Consumer<Mercury> configure = mercury -> {
+            mercury.getClassPath().add(archive);
+            mercury.setClasspathCacheDir(cacheDir);
+        };
+        this.remap(configure);
+        final List<Path> indexFiles = this.listIndexFiles(cacheDir);
+        assertEquals(1, indexFiles.size());
+
+        // The second run loads the index stored by the first one, without
+        // writing it again
+        final FileTime time = FileTime.fromMillis(0);
+        Files.setLastModifiedTime(indexFiles.get(0), time);
+        this.remap(configure);
+        assertEquals(indexFiles, this.listIndexFiles(cacheDir));
+        assertEquals(time, Files.getLastModifiedTime(indexFiles.get(0)));
+
+        this.delete(cacheDir);
+    }
+
+    @Test
+    void createTypeBindings() throws Exception {
+        this.remap(mercury -> mercury.getProcessors().add(context -> {
+            final Map<String, ITypeBinding> bindings = mercury.createTypeBindings(
+                    Arrays.asList("java/lang/String", "java.util.List", "does/not/Exist"));
+            assertEquals(2, bindings.size());
+
+            // Both found and missing types are cached
+            assertSame(bindings.get("java/lang/String"), mercury.createTypeBinding("java.lang.String").orElse(null));
+            assertFalse(mercury.createTypeBinding("does.not.Exist").isPresent());
+        }));
+    }
+
+    @Test
+    void keepContextEntries() throws Exception {
+        // The context accepts null, and its values are not closed by Mercury
+        final AtomicBoolean closed = new AtomicBoolean();
+        this.remap(mercury -> mercury.getProcessors().add(context -> {
+            final Map<Object, Object> map = context.getMercury().getContext();
+            map.put(null, null);
+            map.put(Closeable.class, (Closeable) () -> closed.set(true));
+            assertTrue(map.containsKey(null));
+        }));
+        assertFalse(closed.get(), "A context value was closed");
+    }
+
+    @Test
+    void remapIncrementally() throws Exception {
+        final Path tempDir = Files.createTempDirectory("mercury-test");
+        final Path in = tempDir.resolve("a");
+        final Path out = tempDir.resolve("b");
+        this.copyAll(in);
+
+        final Consumer<Mercury> configure = mercury -> mercury.setIncremental(true);
+        final Mercury first = this.run(in, out, configure);
+        this.verifyCounts(first);
+        this.verifyAll(out);
+
+        // Nothing changed, so all of the previous output is kept
+        final Mercury second = this.run(in, out, configure);
+        assertEquals(11, second.getReusedFiles());
+        this.verifyAll(out);
+
+        // The output of removed source files is removed as well
+        Files.delete(in.resolve("JavadocTest.java"));
+        final Mercury third = this.run(in, out, configure);
+        assertEquals(0, third.getRewrittenFiles() + third.getCopiedFiles());
+        assertEquals(10, third.getReusedFiles());
+        assertFalse(Files.exists(out.resolve("JavadocTest.java")), "JavadocTest.java was not removed");
+        this.verify(out, "ParameterTest.java");
+
+        // Only changed source files are rewritten, since no other file references ParameterTest
+        Files.write(in.resolve("ParameterTest.java"), "// Changed\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        final Mercury fourth = this.run(in, out, configure);
+        assertEquals(1, fourth.getRewrittenFiles());
+        assertEquals(9, fourth.getReusedFiles());
+        assertTrue(new String(Files.readAllBytes(out.resolve("ParameterTest.java")), StandardCharsets.UTF_8).endsWith("// Changed\n"));
+        this.verify(out, "Core.java");
+
+        this.delete(tempDir);
+    }
+
+    @Test
+    void remapDelta() throws Exception {
+        final Path tempDir = Files.createTempDirectory("mercury-test");
+        final Path in = tempDir.resolve("a");
+        final Path out = tempDir.resolve("b");
+        this.copyAll(in);
+
+        final Mercury first = this.run(in, out, mercury -> mercury.setIncremental(true));
+        this.verifyCounts(first);
+
+        // Mapping a class that is not referenced anywhere keeps all of the previous output
+        final MappingSet previous = this.loadMappings();
+        final MappingSet mappings = this.loadMappings();
+        mappings.getOrCreateClassMapping("unused/Example");
+
+        final Mercury second = this.run(in, out, mercury -> {
+            mercury.setIncremental(true);
+            mercury.getProcessors().set(0, MercuryRemapper.createDelta(previous, mappings));
+        });
+        assertEquals(11, second.getReusedFiles());
+        this.verifyAll(out);
+
+        this.delete(tempDir);
+    }
+
+    @Test
+    void remapDeltaOfOuterClass() throws Exception {
+        final Path tempDir = Files.createTempDirectory("mercury-test");
+        final Path in = tempDir.resolve("a");
+        final Path out = tempDir.resolve("b");
+        Files.createDirectories(in.resolve("inner"));
+        Files.write(in.resolve("inner/Outer.java"), Arrays.asList(
+                "package inner;",
+                "",
+                "public class Outer {",
+                "    public static class Inner {",
+                "    }",
+                "}"
+        ));
+        Files.write(in.resolve("inner/User.java"), Arrays.asList(
+                "package inner;",
+                "",
+                "import inner.Outer.Inner;",
+                "",
+                "public class User {",
+                "    private Inner inner;",
+                "}"
+        ));
+
+        final MappingSet previous = MappingSet.create();
+        previous.createTopLevelClassMapping("inner/Outer", "inner/Renamed");
+        this.run(in, out, mercury -> {
+            mercury.setIncremental(true);
+            mercury.getProcessors().set(0, MercuryRemapper.create(previous));
+        });
+        assertTrue(new String(Files.readAllBytes(out.resolve("inner/User.java"))).contains("import inner.Renamed.Inner;"));
+
+        // The inner class is only mapped implicitly by its outer class, so
+        // changing the mapping of the outer class affects its references
+        final MappingSet mappings = MappingSet.create();
+        mappings.createTopLevelClassMapping("inner/Outer", "inner/Other");
+        final Mercury second = this.run(in, out, mercury -> {
+            mercury.setIncremental(true);
+            mercury.getProcessors().set(0, MercuryRemapper.createDelta(previous, mappings));
+        });
+        assertEquals(0, second.getReusedFiles());
+        assertTrue(new String(Files.readAllBytes(out.resolve("inner/User.java"))).contains("import inner.Other.Inner;"));
+
+        this.delete(tempDir);
+    }
+
+    Mercury remap(final Consumer<Mercury> configure) throws Exception {
         final Path tempDir = Files.createTempDirectory("mercury-test");
         final Path in = tempDir.resolve("a");
         final Path out = tempDir.resolve("b");
+        this.copyAll(in);
+
+        final Mercury mercury = this.run(in, out, configure);
+        this.verifyCounts(mercury);
+        this.verifyAll(out);
+        this.verifyCopied(in, out);
+        this.delete(tempDir);
+        return mercury;
+    }
+
+    void copyAll(final Path in) throws IOException {
         Files.createDirectories(in);
-        Files.createDirectories(out);
 
         // Copy our test classes to the temporary directory
         // - Test 1
@@ -88,21 +884,96 @@ void remap() throws Exception {
         this.copy(in, "com/example/other/AnotherClass.java");
         this.copy(in, "com/example/other/OtherClass.java");
         this.copy(in, "com/example/pkg/Constants.java");
+    }
 
+    Mercury run(final Path in, final Path out, final Consumer<Mercury> configure) throws Exception {
+        Files.createDirectories(out);
+
+        // Run Mercury
+        final Mercury mercury = this.create(configure);
+        mercury.rewrite(in, out);
+        return mercury;
+    }
+
+    Mercury create(final Consumer<Mercury> configure) throws IOException {
+        final Mercury mercury = new Mercury();
+        mercury.setSourceCompatibility(JavaCore.VERSION_11);
+        mercury.getProcessors().add(MercuryRemapper.create(this.loadMappings()));
+        mercury.setFlexibleAnonymousClassMemberLookups(true);
+        configure.accept(mercury);
+        return mercury;
+    }
+
+    MappingSet loadMappings() throws IOException {
         // Load our test mappings
         final MappingSet mappings = MappingSet.create();
         try (final MappingsReader reader = MappingFormats.byId("jam")
                 .createReader(RemappingTests.class.getResourceAsStream("/test.jam"))) {
             reader.read(mappings);
         }
+        return mappings;
+    }
 
-        // Run Mercury
-        final Mercury mercury = new Mercury();
-        mercury.setSourceCompatibility(JavaCore.VERSION_11);
-        mercury.getProcessors().add(MercuryRemapper.create(mappings));
-        mercury.setFlexibleAnonymousClassMemberLookups(true);
-        mercury.rewrite(in, out);
+    static long countMethods(final Collection<? extends ClassMapping<?, ?>> mappings) {
+        long count = 0;
+        for (final ClassMapping<?, ?> mapping : mappings) {
+            count += mapping.getMethodMappings().size() + countMethods(mapping.getInnerClassMappings());
+        }
+        return count;
+    }
 
+    static SourceProcessor recordNames(final List<String> visits, final String prefix) {
+        return new SourceProcessor() {
+            @Override
+            public ASTVisitor createVisitor(final SourceContext context) {
+                return new ASTVisitor() {
+                    @Override
+                    public boolean visit(final SimpleName node) {
+                        visits.add(prefix + ':' + node.getIdentifier());
+                        return true;
+                    }
+                };
+            }
+
+            @Override
+            public void process(final SourceContext context) {
+            }
+        };
+    }
+
+    List<Path> listIndexFiles(final Path cacheDir) throws IOException {
+        try (final Stream<Path> files = Files.list(cacheDir)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".idx")).collect(Collectors.toList());
+        }
+    }
+
+    Set<String> collectASTRewrites(final boolean directPatching) throws Exception {
+        final Set<String> types = ConcurrentHashMap.newKeySet();
+        this.remap(mercury -> {
+            mercury.setDirectPatching(directPatching);
+            mercury.getProcessors().add((SourceRewriter) context -> {
+                if (context.getASTRewrite().isPresent()) {
+                    types.add(context.getQualifiedPrimaryType());
+                }
+            });
+        });
+        return types;
+    }
+
+    void verifyCounts(final Mercury mercury) {
+        // Only Javadocs.java and NonNull.java do not reference any of the mappings
+        assertEquals(9, mercury.getRewrittenFiles());
+        assertEquals(2, mercury.getCopiedFiles());
+    }
+
+    void verifyCopied(final Path in, final Path out) throws IOException {
+        // Files without any edits are copied as-is
+        for (final String file : new String[] { "test/test/Javadocs.java", "NonNull.java" }) {
+            assertArrayEquals(Files.readAllBytes(in.resolve(file)), Files.readAllBytes(out.resolve(file)), file);
+        }
+    }
+
+    void verifyAll(final Path out) throws IOException {
         // Check that the output is as expected
         // - Test 1
         this.verify(out, "Core.java");
@@ -123,7 +994,9 @@ void remap() throws Exception {
         this.verify(out, "net/example/newother/AnotherClass.java");
         this.verify(out, "net/example/newother/OtherClass.java");
         this.verify(out, "net/example/pkg/Util.java");
+    }
 
+    void delete(final Path tempDir) throws IOException {
         // Delete the directory
         Files.walk(tempDir)
                 .sorted(Comparator.reverseOrder())
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.cadixdev.mercury.Mercury;
+import org.cadixdev.mercury.SourceContext;
+import org.cadixdev.mercury.SourceProcessor;
+import org.cadixdev.mercury.SourceSummary;
+import org.eclipse.jdt.core.JavaCore;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+
+class SourceSummaryTests {
+
+    private static final String SOURCE = "package test;\n"
+            + "\n"
+            + "public class Test {\n"
+            + "    @interface Annotation {\n"
+            + "    }\n"
+            + "\n"
+            + "    record Point(int x, int y) {\n"
+            + "    }\n"
+            + "\n"
+            + "    record Pair<A, B>(A first, B second) {\n"
+            + "    }\n"
+            + "\n"
+            + "    void method(Object record) {\n"
+            + "        record.hashCode();\n"
+            + "        Class<?> type = Test.class;\n"
+            + "    }\n"
+            + "}\n";
+
+    @Test
+    void collectDeclaredTypes() throws Exception {
+        final Path tempDir = Files.createTempDirectory("mercury-test");
+        final Path sourceFile = tempDir.resolve("test").resolve("Test.java");
+        Files.createDirectories(sourceFile.getParent());
+        Files.write(sourceFile, SOURCE.getBytes(StandardCharsets.UTF_8));
+
+        final Set<String> declaredTypes = new HashSet<>();
+        final Mercury mercury = new Mercury();
+        mercury.setSourceCompatibility(JavaCore.VERSION_16);
+        mercury.setSourceFiltering(true);
+        mercury.getProcessors().add(new SourceProcessor() {
+            @Override
+            public boolean isRelevant(final SourceSummary summary) throws Exception {
+                declaredTypes.addAll(summary.getDeclaredTypes());
+                return false;
+            }
+
+            @Override
+            public void process(final SourceContext context) {
+            }
+        });
+        mercury.process(tempDir);
+
+        assertEquals(new HashSet<>(Arrays.asList("Test", "Annotation", "Point", "Pair")), declaredTypes);
+
+        Files.walk(tempDir)
+                .sorted(Comparator.reverseOrder())
+                .map(Path::toFile)
+                .forEach(File::delete);
+    }
+
+}